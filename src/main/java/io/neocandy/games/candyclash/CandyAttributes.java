@@ -0,0 +1,28 @@
+package io.neocandy.games.candyclash;
+
+/**
+ * Packs the staking relevant attributes of a candy into a single integer that
+ * is shared between the NFT and the staking contract.
+ *
+ * Bit 0 holds the villain flag, bit 1 the generation and the remaining bits
+ * the sugar of the candy.
+ */
+public class CandyAttributes {
+
+    public static int pack(boolean villain, int generation, int sugar) {
+        return (villain ? 1 : 0) + generation * 2 + sugar * 4;
+    }
+
+    public static boolean isVillain(int attributes) {
+        return attributes % 2 == 1;
+    }
+
+    public static int generation(int attributes) {
+        return attributes / 2 % 2;
+    }
+
+    public static int sugar(int attributes) {
+        return attributes / 4;
+    }
+
+}
@@ -18,9 +18,11 @@ import io.neow3j.devpack.annotations.Permission;
 import io.neow3j.devpack.annotations.OnDeployment;
 import io.neow3j.devpack.annotations.OnNEP17Payment;
 import io.neow3j.devpack.annotations.Safe;
+import io.neow3j.devpack.annotations.SupportedStandards;
 import io.neow3j.devpack.constants.CallFlags;
 import io.neow3j.devpack.constants.FindOptions;
 import io.neow3j.devpack.contracts.ContractManagement;
+import io.neocandy.tokens.nep11.NEP11Core;
 import io.neow3j.devpack.contracts.GasToken;
 import io.neow3j.devpack.contracts.StdLib;
 import io.neow3j.devpack.events.Event2Args;
@@ -31,7 +33,8 @@ import io.neow3j.devpack.events.Event4Args;
 @ManifestExtra(key = "author", value = "NeoCandy")
 @ManifestExtra(key = "description", value = "CandyClash NFT Collection")
 @ManifestExtra(key = "email", value = "hello@neocandy.io")
-@Permission(contract = "*", methods = { "totalVillainCandiesStaked", "onNEP11Payment" })
+@SupportedStandards({ "NEP-11", "NEP-24" })
+@Permission(contract = "*", methods = { "randomStakedVillainOwner", "stakeBatch", "onNEP11Payment" })
 @Permission(contract = "0xfffdc93764dbaddd97c48f252a53ea4643faa3fd", methods = "*")
 public class CandyClashNFT {
 
@@ -45,6 +48,9 @@ public class CandyClashNFT {
     static Event3Args<Hash160, Integer, Object> onPayment;
 
     // DEFAULT METADATA
+    private static final String TOKEN_NAME_PREFIX = "CandyClash Candy #";
+    private static final String TOKEN_DESCRIPTION = "CandyClash Candy NFT. Stake to earn $CANDY.";
+    private static final String UNREVEALED_IMAGE = "unrevealed.png";
     private static final String NAME = "name";
     private static final String DESC = "description";
     private static final String IMAGE = "image";
@@ -68,63 +74,74 @@ public class CandyClashNFT {
     // ROYALTIES
     private static final String ROYALTIES_ADDRESS = "address";
     private static final String ROYALTIES_VALUE = "value";
+    private static final String ROYALTY_RECIPIENT = "royaltyRecipient";
+    private static final String ROYALTY_AMOUNT = "royaltyAmount";
+
+    // version of the storage layout, 0 is the layout with one map per property
+    private static final int SCHEMA_VERSION = 1;
 
     private static final StorageContext ctx = Storage.getStorageContext();
 
     // STORAGE KEYS
     private static final byte[] ownerkey = Helper.toByteArray((byte) 1);
     private static final byte[] totalSupplyKey = Helper.toByteArray((byte) 2);
-    private static final byte[] gasPriceKey = Helper.toByteArray((byte) 4);
-    private static final byte[] candyPriceKey = Helper.toByteArray((byte) 5);
-    private static final byte[] candyHashKey = Helper.toByteArray((byte) 6);
-    private static final byte[] tokensOfKey = Helper.toByteArray((byte) 24);
     private static final byte[] imageBaseUriKey = Helper.toByteArray((byte) 27);
-    private static final byte[] maxTokensAmountKey = Helper.toByteArray((byte) 28);
-    private static final byte[] maxGenesisAmountKey = Helper.toByteArray((byte) 29);
-    private static final byte[] isPausedKey = Helper.toByteArray((byte) 30);
-    private static final byte[] royaltiesReceiverKey = Helper.toByteArray((byte) 31);
-    private static final byte[] royaltiesAmountKey = Helper.toByteArray((byte) 32);
-    private static final byte[] maxMintAmountKey = Helper.toByteArray((byte) 33);
-    private static final byte[] stakingContractKey = Helper.toByteArray((byte) 34);
+    // serialized RoyaltyConfig
+    private static final byte[] royaltyConfigKey = Helper.toByteArray((byte) 37);
+    private static final byte[] schemaVersionKey = Helper.toByteArray((byte) 38);
+    private static final byte[] migrationCursorKey = Helper.toByteArray((byte) 39);
+    // LEGACY STORAGE KEYS, read until the migration to the current layout finished
+    private static final byte[] legacyGasPriceKey = Helper.toByteArray((byte) 4);
+    private static final byte[] legacyCandyPriceKey = Helper.toByteArray((byte) 5);
+    private static final byte[] legacyCandyHashKey = Helper.toByteArray((byte) 6);
+    private static final byte[] legacyMaxTokensAmountKey = Helper.toByteArray((byte) 28);
+    private static final byte[] legacyMaxGenesisAmountKey = Helper.toByteArray((byte) 29);
+    private static final byte[] legacyIsPausedKey = Helper.toByteArray((byte) 30);
+    private static final byte[] legacyRoyaltiesReceiverKey = Helper.toByteArray((byte) 31);
+    private static final byte[] legacyRoyaltiesAmountKey = Helper.toByteArray((byte) 32);
+    private static final byte[] legacyMaxMintAmountKey = Helper.toByteArray((byte) 33);
+    private static final byte[] legacyStakingContractKey = Helper.toByteArray((byte) 34);
+    // serialized SaleConfig, read once per payment
+    private static final byte[] saleConfigKey = Helper.toByteArray((byte) 35);
+    private static final byte[] revealCursorKey = Helper.toByteArray((byte) 36);
 
     // STORAGE MAPS
-    private static final StorageMap tokens = new StorageMap(ctx, Helper.toByteArray((byte) 3));
-    private static final StorageMap balances = new StorageMap(ctx, Helper.toByteArray((byte) 20));
-    private static final StorageMap ownerOfMap = new StorageMap(ctx, Helper.toByteArray((byte) 4));
-    private static final StorageMap propertiesNameMap = new StorageMap(ctx, (byte) 12);
-    private static final StorageMap propertiesDescriptionMap = new StorageMap(ctx, (byte) 13);
-    private static final StorageMap propertiesImageMap = new StorageMap(ctx, (byte) 14);
-    private static final StorageMap propertiesTokenURIMap = new StorageMap(ctx, (byte) 15);
-    private static final StorageMap propertiesSugarMap = new StorageMap(ctx, (byte) 16);
-    private static final StorageMap propertiesClassMap = new StorageMap(ctx, (byte) 17);
+    // owners, balances and tokensOf entries are kept by NEP11Core at prefix 4, 20 and 24
+    // packed type, generation and sugar per token, see CandyAttributes. Missing
+    // for candies that are not revealed yet.
+    private static final StorageMap attributesMap = new StorageMap(ctx, (byte) 42);
     private static final StorageMap villainCandies = new StorageMap(ctx, (byte) 40);
     private static final StorageMap villagerCandies = new StorageMap(ctx, (byte) 41);
+    private static final StorageMap legacyTokens = new StorageMap(ctx, (byte) 3);
+    private static final StorageMap legacyNameMap = new StorageMap(ctx, (byte) 12);
+    private static final StorageMap legacyDescriptionMap = new StorageMap(ctx, (byte) 13);
+    private static final StorageMap legacyImageMap = new StorageMap(ctx, (byte) 14);
+    private static final StorageMap legacyTokenURIMap = new StorageMap(ctx, (byte) 15);
+    private static final StorageMap legacySugarMap = new StorageMap(ctx, (byte) 16);
+    private static final StorageMap legacyTypeMap = new StorageMap(ctx, (byte) 17);
 
     @OnNEP17Payment
     public static void onPayment(Hash160 from, int amount, Object data) throws Exception {
-        assert (!isPaused()) : "isPaused";
-        assert (stakingContract() != null) : "missing staking contract";
-        assert (totalSupply() < maxTokensAmount()) : "sold out";
+        SaleConfig config = loadSaleConfig();
+        assert (!config.paused) : "isPaused";
+        assert (config.stakingContract != null) : "missing staking contract";
+        int totalSupply = totalSupply();
+        assert (totalSupply < config.maxTokensAmount) : "sold out";
         Hash160 token = Runtime.getCallingScriptHash();
-        assert (token == GasToken.getHash() || token == candyContract()) : "invalid token";
+        assert (token == GasToken.getHash() || token == config.candyContract) : "invalid token";
         if (token == GasToken.getHash()) {
-            int gasPrice = gasPrice();
-            int times = amount / gasPrice;
-            assert (totalSupply() + times <= maxGenesisAmount()) : "not available";
-            assert (times <= maxMintAmount()) : "mint amount reached";
-            assert (times > 0 && amount % gasPrice == 0) : "invalid amount";
-            for (int i = 0; i < times; i++) {
-                mint(from, 0);
-            }
+            int times = amount / config.gasPrice;
+            assert (totalSupply + times <= config.maxGenesisAmount) : "not available";
+            assert (times <= config.maxMintAmount) : "mint amount reached";
+            assert (times > 0 && amount % config.gasPrice == 0) : "invalid amount";
+            mintBatch(config, from, 0, totalSupply, times);
         } else {
-            int candyPrice = candyPrice();
-            int times = amount / candyPrice;
-            assert (totalSupply() > maxGenesisAmount() && totalSupply() + times <= maxTokensAmount()) : "not available";
-            assert (times <= maxMintAmount()) : "mint amount reached";
-            assert (times > 0 && amount % candyPrice == 0) : "invalid amount";
-            for (int i = 0; i < times; i++) {
-                mint(from, 1);
-            }
+            int times = amount / config.candyPrice;
+            assert (totalSupply >= config.maxGenesisAmount && totalSupply + times <= config.maxTokensAmount)
+                    : "not available";
+            assert (times <= config.maxMintAmount) : "mint amount reached";
+            assert (times > 0 && amount % config.candyPrice == 0) : "invalid amount";
+            mintBatch(config, from, 1, totalSupply, times);
         }
         onPayment.fire(from, amount, data);
     }
@@ -136,13 +153,25 @@ public class CandyClashNFT {
 
     @Safe
     public static String getRoyalties() {
-        String receiverAddress = Storage.getString(ctx, royaltiesReceiverKey);
-        int amount = Storage.getInt(ctx, royaltiesAmountKey);
-        Map<String, Object> map = new Map<>();
-        map.put(ROYALTIES_ADDRESS, receiverAddress);
-        map.put(ROYALTIES_VALUE, StdLib.jsonSerialize(amount));
-        Object[] arr = new Object[] { map };
-        return StdLib.jsonSerialize(arr);
+        return loadRoyaltyConfig().json;
+    }
+
+    /**
+     * NEP-24 royalties of a sale. The same royalties apply to every candy and every
+     * payment token.
+     *
+     * @param tokenId      = Candy that is sold.
+     * @param royaltyToken = Token the sale is paid with.
+     * @param salePrice    = Sale price in fractions of the royalty token.
+     */
+    @Safe
+    public static Map<String, Object>[] royaltyInfo(ByteString tokenId, Hash160 royaltyToken, int salePrice) {
+        assert NEP11Core.ownerOf(tokenId) != null : "This token id does not exist";
+        RoyaltyConfig config = loadRoyaltyConfig();
+        Map<String, Object> royalty = new Map<>();
+        royalty.put(ROYALTY_RECIPIENT, config.receiver);
+        royalty.put(ROYALTY_AMOUNT, salePrice * config.amount / 10000);
+        return new Map[] { royalty };
     }
 
     @Safe
@@ -162,248 +191,306 @@ public class CandyClashNFT {
 
     @Safe
     public static int balanceOf(Hash160 owner) {
-        return getBalanceOf(owner);
+        return NEP11Core.balanceOf(owner);
     }
 
     @Safe
     public static int maxGenesisAmount() {
-        return Storage.getInt(ctx, maxGenesisAmountKey);
+        return loadSaleConfig().maxGenesisAmount;
     }
 
     @Safe
     public static int maxTokensAmount() {
-        return Storage.getInt(ctx, maxTokensAmountKey);
+        return loadSaleConfig().maxTokensAmount;
     }
 
     @Safe
     public static boolean isPaused() {
-        return Storage.getInt(ctx, isPausedKey) == 1 ? true : false;
+        return loadSaleConfig().paused;
     }
 
     @Safe
     public static int gasPrice() {
-        return Storage.getInt(ctx, gasPriceKey);
+        return loadSaleConfig().gasPrice;
     }
 
     @Safe
     public static int candyPrice() {
-        return Storage.getInt(ctx, candyPriceKey);
+        return loadSaleConfig().candyPrice;
+    }
+
+    @Safe
+    public static Hash160 stakingContract() {
+        return loadSaleConfig().stakingContract;
+    }
+
+    @Safe
+    public static boolean lazyReveal() {
+        return loadSaleConfig().lazyReveal;
     }
 
     @Safe
     public static Iterator<ByteString> tokensOf(Hash160 owner) {
-        return (Iterator<ByteString>) Storage.find(
-                ctx.asReadOnly(),
-                createTokensOfPrefix(owner),
-                FindOptions.RemovePrefix);
+        return NEP11Core.tokensOf(owner);
+    }
+
+    /**
+     * Returns the candies of {@code owner} together with their packed attributes,
+     * see CandyAttributes. Candies that are not revealed yet have the attributes
+     * 0. A wallet can render a whole inventory from this single call.
+     */
+    @Safe
+    public static Iterator<Struct<ByteString, ByteString>> tokensOfWithAttributes(Hash160 owner) {
+        return NEP11Core.tokensOfWithValues(owner);
     }
 
     public static boolean transfer(Hash160 to, ByteString tokenId, Object data) throws Exception {
         Hash160 owner = ownerOf(tokenId);
         assert owner != null : "This token id does not exist";
         assert Runtime.checkWitness(owner) : "No authorization";
+        int attributes = attributesOf(tokenId);
+        if (attributes == 0) {
+            attributes = revealCandy(RandomStream.seed(), tokenId, generationOf(loadSaleConfig(), tokenId), owner);
+        }
 
-        ownerOfMap.put(tokenId, to.toByteArray());
-        new StorageMap(ctx, createTokensOfPrefix(owner)).delete(tokenId);
-        new StorageMap(ctx, createTokensOfPrefix(to)).put(tokenId, 1);
-
-        decrementBalanceByOne(owner);
-        incrementBalanceByOne(to);
-
+        NEP11Core.move(owner, to, tokenId, attributes);
         onTransfer.fire(owner, to, 1, tokenId);
+        NEP11Core.notifyReceiver(owner, to, tokenId, data);
+        return true;
+    }
 
-        if (ContractManagement.getContract(to) != null) {
-            Contract.call(to, "onNEP11Payment", CallFlags.All,
-                    new Object[] { owner, 1, tokenId, data });
+    /**
+     * Moves several candies of the signer to the staking contract in one call. The
+     * staking contract is notified once for the whole batch instead of once per
+     * token through onNEP11Payment.
+     *
+     * @param tokenIds = Candies to stake, all owned by the same account.
+     */
+    public static boolean stakeMany(ByteString[] tokenIds) throws Exception {
+        assert tokenIds.length > 0 : "no tokens";
+        Hash160 owner = ownerOf(tokenIds[0]);
+        assert owner != null : "This token id does not exist";
+        assert Runtime.checkWitness(owner) : "No authorization";
+        SaleConfig config = loadSaleConfig();
+        Hash160 staking = config.stakingContract;
+        RandomStream random = null;
+        StorageMap ownerTokens = NEP11Core.tokensOfMap(owner);
+        StorageMap stakingTokens = NEP11Core.tokensOfMap(staking);
+        int[] attributes = new int[tokenIds.length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            ByteString tokenId = tokenIds[i];
+            assert ownerOf(tokenId) == owner : "No authorization";
+            ownerTokens.delete(tokenId);
+            attributes[i] = attributesOf(tokenId);
+            if (attributes[i] == 0) {
+                if (random == null) {
+                    random = RandomStream.seed();
+                }
+                attributes[i] = revealCandy(random, tokenId, generationOf(config, tokenId), owner);
+            }
+            NEP11Core.assign(staking, stakingTokens, tokenId, attributes[i]);
+            onTransfer.fire(owner, staking, 1, tokenId);
         }
+        NEP11Core.addToBalance(owner, -tokenIds.length);
+        NEP11Core.addToBalance(staking, tokenIds.length);
+
+        Contract.call(staking, "stakeBatch", CallFlags.All, new Object[] { owner, tokenIds, attributes });
         return true;
     }
 
     @Safe
     public static Hash160 ownerOf(ByteString tokenId) {
-        ByteString owner = ownerOfMap.get(tokenId);
-        if (owner == null) {
-            return null;
+        return NEP11Core.ownerOf(tokenId);
+    }
+
+    /**
+     * Mints {@code times} candies for the buyer. The token id range is reserved
+     * with a single total supply write and the buyer's balance is credited once
+     * for all candies that were not stolen.
+     */
+    private static void mintBatch(SaleConfig config, Hash160 buyer, int gen, int totalSupply, int times)
+            throws Exception {
+        Storage.put(ctx, totalSupplyKey, totalSupply + times);
+        StorageMap buyerTokens = NEP11Core.tokensOfMap(buyer);
+        RandomStream random = RandomStream.seed();
+        int buyerAmount = 0;
+        for (int i = 1; i <= times; i++) {
+            ByteString tokenId = new ByteString(totalSupply + i);
+            Hash160 owner = mint(config, random, buyer, buyerTokens, tokenId, gen);
+            if (owner == buyer) {
+                buyerAmount++;
+            } else {
+                NEP11Core.addToBalance(owner, 1);
+            }
         }
-        return new Hash160(owner);
-    }
-
-    private static void mint(Hash160 owner, int gen) throws Exception {
-        incrementTotalSupplyByOne();
-        int totalSupply = totalSupply();
-        String ts = StdLib.jsonSerialize(totalSupply);
-        ByteString tokenId = new ByteString(totalSupply);
-        Map<String, String> properties = new Map<>();
-        properties.put(NAME, "CandyClash Candy #" + ts);
-        properties.put(DESC, "CandyClash Candy NFT. Stake to earn $CANDY.");
-        properties.put(IMAGE, getImageBaseURI() + "/" + ts + ".png");
-        properties.put(TOKEN_URI, "");
-        properties.put(GENERATION, StdLib.jsonSerialize(gen));
-        properties.put(SUGAR, "1"); // RANDOMIZE
+        NEP11Core.addToBalance(buyer, buyerAmount);
+    }
+
+    /**
+     * Writes the per-token state of a new candy and returns its owner, which
+     * differs from the buyer if the candy was stolen. In lazy reveal mode only
+     * the ownership is written and the traits are rolled by {@link #revealCandy}
+     * later on.
+     */
+    private static Hash160 mint(SaleConfig config, RandomStream random, Hash160 owner, StorageMap buyerTokens,
+            ByteString tokenId, int gen) throws Exception {
+        boolean stolen = false;
         // there is a 10% chance that a new gen 1 mint can be stolen
         if (gen == 1) {
-            boolean steal = Runtime.getRandom() % 10 == 0;
+            boolean steal = RandomStream.next(random, 10) == 0;
             if (steal) {
-                Hash160 newOwner = randomVillainCandyOwner();
-                owner = newOwner != null ? newOwner : owner;
+                int seed = RandomStream.next(random, 2147483647);
+                Hash160 newOwner = randomVillainCandyOwner(config.stakingContract, seed);
+                if (newOwner != null) {
+                    owner = newOwner;
+                    stolen = true;
+                }
             }
         }
-        if (Runtime.getRandom() % 10 == 9) {
-            properties.put(TYPE, TYPE_VILLAIN);
-            villainCandies.put(tokenId, owner);
-        } else {
-            properties.put(TYPE, TYPE_VILLAGER);
-            villagerCandies.put(tokenId, owner);
+        int attributes = 0;
+        if (!config.lazyReveal) {
+            attributes = revealCandy(random, tokenId, gen, owner);
         }
-        updateProperties(properties, tokenId);
-        tokens.put(tokenId, tokenId);
-        ownerOfMap.put(tokenId, owner.toByteArray());
-        new StorageMap(ctx, createTokensOfPrefix(owner)).put(tokenId, 1);
-        incrementBalanceByOne(owner);
+        StorageMap ownerTokens = stolen ? NEP11Core.tokensOfMap(owner) : buyerTokens;
+        NEP11Core.assign(owner, ownerTokens, tokenId, attributes);
         onMint.fire(owner, tokenId);
+        return owner;
     }
 
-    private static Hash160 randomVillainCandyOwner() throws Exception {
-        // random value between 0 and totalVillainCandiesStaked
-        int rand = (Runtime.getRandom() & 0xFFFFFFFF) % totalVillainCandiesStaked();
-        Iterator<ByteString> iter = villainCandies.find(FindOptions.ValuesOnly);
-        int count = 0;
-        while (iter.next()) {
-            if (count == rand) {
-                return new Hash160(iter.get());
-            }
-            count++;
+    /**
+     * Rolls the traits of a candy, persists them and returns the packed
+     * attributes.
+     */
+    private static int revealCandy(RandomStream random, ByteString tokenId, int gen, Hash160 owner) {
+        int sugar = 1; // RANDOMIZE
+        boolean villain = RandomStream.next(random, 10) == 9;
+        if (villain) {
+            villainCandies.put(tokenId, owner);
+        } else {
+            villagerCandies.put(tokenId, owner);
         }
-        // when no villain candy is staked at this moment
-        return null;
-    }
-
-    private static int totalVillainCandiesStaked() {
-        return (int) Contract.call(stakingContract(), "totalVillainCandiesStaked", CallFlags.All, new Object[0]);
+        int attributes = CandyAttributes.pack(villain, gen, sugar);
+        attributesMap.put(tokenId, attributes);
+        return attributes;
     }
 
-    private static Hash160 stakingContract() {
-        return new Hash160(Storage.get(ctx, stakingContractKey));
+    /**
+     * Genesis candies are sold for GAS before any gen 1 candy, so the generation
+     * follows from the token id alone.
+     */
+    private static int generationOf(SaleConfig config, ByteString tokenId) {
+        return tokenId.toInt() > config.maxGenesisAmount ? 1 : 0;
     }
 
-    private static byte[] createTokensOfPrefix(Hash160 owner) {
-        return Helper.concat(tokensOfKey, owner.toByteArray());
+    /**
+     * Returns the owner of a random staked villain candy, weighted by sugar, or null
+     * when no villain candy is staked at this moment.
+     */
+    private static Hash160 randomVillainCandyOwner(Hash160 stakingContract, int seed) {
+        return (Hash160) Contract.call(stakingContract, "randomStakedVillainOwner", CallFlags.ReadOnly,
+                new Object[] { seed });
     }
 
-    private static Hash160 candyContract() {
-        return new Hash160(Storage.get(ctx, candyHashKey));
+    private static int stakingAttributesOf(ByteString tokenId) {
+        int attributes = attributesOf(tokenId);
+        if (attributes == 0) {
+            assert NEP11Core.ownerOf(tokenId) != null : "This token id does not exist";
+        }
+        assert attributes != 0 : "not revealed";
+        return attributes;
+    }
+
+    /**
+     * Returns the packed attributes of a candy or 0 if it is not revealed. Until
+     * the migration finished, candies minted with the legacy layout are read from
+     * their legacy property maps.
+     */
+    private static int attributesOf(ByteString tokenId) {
+        ByteString packed = attributesMap.get(tokenId);
+        if (packed != null) {
+            return packed.toInt();
+        }
+        if (!isMigrating()) {
+            return 0;
+        }
+        return legacyAttributesOf(loadSaleConfig(), tokenId);
     }
 
-    private static void updateProperties(Map<String, String> properties, ByteString tokenId) {
-        assert properties.containsKey(NAME) : "missing name";
-        String tokenName = properties.get(NAME);
-        propertiesNameMap.put(tokenId, tokenName);
-
-        assert properties.containsKey(DESC) : "missing desc";
-        String tokenDesc = properties.get(DESC);
-        propertiesDescriptionMap.put(tokenId, tokenDesc);
-
-        assert properties.containsKey(IMAGE) : "missing img";
-        String tokenImg = properties.get(IMAGE);
-        propertiesImageMap.put(tokenId, tokenImg);
-
-        assert properties.containsKey(TOKEN_URI) : "missing uri";
-        String tokenUri = properties.get(TOKEN_URI);
-        propertiesTokenURIMap.put(tokenId, tokenUri);
-
-        assert properties.containsKey(SUGAR) : "missing sugar";
-        String sugarValue = properties.get(SUGAR);
-        propertiesSugarMap.put(tokenId, sugarValue);
-
-        assert properties.containsKey(TYPE) : "missing type";
-        String tokenType = properties.get(TYPE);
-        propertiesClassMap.put(tokenId, tokenType);
+    private static int legacyAttributesOf(SaleConfig config, ByteString tokenId) {
+        String type = legacyTypeMap.getString(tokenId);
+        if (type == null) {
+            return 0;
+        }
+        int sugar = StdLib.atoi(legacySugarMap.getString(tokenId), 10);
+        return CandyAttributes.pack(type.equals(TYPE_VILLAIN), generationOf(config, tokenId), sugar);
     }
 
     @Safe
-    public static Iterator<Iterator.Struct<ByteString, ByteString>> tokens() {
-        return (Iterator<Iterator.Struct<ByteString, ByteString>>) tokens.find(FindOptions.RemovePrefix);
+    public static Iterator<ByteString> tokens() {
+        return NEP11Core.tokens();
     }
 
     @Safe
     public static Map<String, Object> properties(ByteString tokenId) throws Exception {
-        Map<String, Object> p = new Map<>();
-        String tokenName = propertiesNameMap.getString(tokenId);
-        if (tokenName == null) {
-            throw new Exception("This token id does not exist.");
-        }
-
-        p.put(NAME, tokenName);
-        ByteString tokenDescription = propertiesDescriptionMap.get(tokenId);
-        if (tokenDescription != null) {
-            p.put(DESC, tokenDescription.toString());
-        }
-        ByteString tokenImage = propertiesImageMap.get(tokenId);
-        if (tokenImage != null) {
-            p.put(IMAGE, tokenImage.toString());
-        }
-        ByteString tokenURI = propertiesTokenURIMap.get(tokenId);
-        if (tokenURI != null) {
-            p.put(TOKEN_URI, tokenURI.toString());
-        }
-        Map<String, Object> propsMap = new Map<>();
-        propsMap.put(PROPERTY_HAS_LOCKED, false);
-        propsMap.put(PROPERTY_TYPE, 4);
-        p.put(PROPERTIES, propsMap);
-
-        List<Map<String, String>> attributes = new List<>();
+        return buildProperties(tokenId);
+    }
 
-        ByteString type = propertiesClassMap.get(tokenId);
-        if (type != null) {
-            attributes.add(getAttributeMap(TYPE, type.toString()));
-        }
-        ByteString sugar = propertiesSugarMap.get(tokenId);
-        if (sugar != null) {
-            attributes.add(getAttributeMap(SUGAR, sugar.toString()));
+    /**
+     * Returns the packed attributes of many candies at once, see CandyAttributes.
+     * This is a lean alternative to {@link #properties} for contracts and dApps
+     * that only need the type, generation and sugar.
+     */
+    @Safe
+    public static int[] stakingAttributes(ByteString[] tokenIds) {
+        int[] attributes = new int[tokenIds.length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            attributes[i] = stakingAttributesOf(tokenIds[i]);
         }
-        p.put(ATTRIBUTES, attributes);
-
-        return p;
+        return attributes;
     }
 
     @Safe
     public static String propertiesJson(ByteString tokenId) throws Exception {
-        Map<String, Object> p = new Map<>();
-        String tokenName = propertiesNameMap.getString(tokenId);
-        if (tokenName == null) {
+        return StdLib.jsonSerialize(buildProperties(tokenId));
+    }
+
+    /**
+     * Builds the metadata of a candy from its packed attributes. Name, description
+     * and image are derived from the token id and the image base URI at read time.
+     * A candy that is not revealed yet gets a placeholder image and only its
+     * generation as attribute.
+     */
+    private static Map<String, Object> buildProperties(ByteString tokenId) throws Exception {
+        int attributes = attributesOf(tokenId);
+        if (attributes == 0 && NEP11Core.ownerOf(tokenId) == null) {
             throw new Exception("This token id does not exist.");
         }
+        String id = StdLib.jsonSerialize(tokenId.toInt());
+
+        Map<String, Object> p = new Map<>();
+        p.put(NAME, TOKEN_NAME_PREFIX + id);
+        p.put(DESC, TOKEN_DESCRIPTION);
+        p.put(TOKEN_URI, "");
 
-        p.put(NAME, tokenName);
-        ByteString tokenDescription = propertiesDescriptionMap.get(tokenId);
-        if (tokenDescription != null) {
-            p.put(DESC, tokenDescription.toString());
-        }
-        ByteString tokenImage = propertiesImageMap.get(tokenId);
-        if (tokenImage != null) {
-            p.put(IMAGE, tokenImage.toString());
-        }
-        ByteString tokenURI = propertiesTokenURIMap.get(tokenId);
-        if (tokenURI != null) {
-            p.put(TOKEN_URI, tokenURI.toString());
-        }
         Map<String, Object> propsMap = new Map<>();
         propsMap.put(PROPERTY_HAS_LOCKED, false);
         propsMap.put(PROPERTY_TYPE, 4);
         p.put(PROPERTIES, propsMap);
 
-        List<Map<String, String>> attributes = new List<>();
-
-        ByteString type = propertiesClassMap.get(tokenId);
-        if (type != null) {
-            attributes.add(getAttributeMap(TYPE, type.toString()));
+        List<Map<String, String>> attributeList = new List<>();
+        if (attributes == 0) {
+            p.put(IMAGE, getImageBaseURI() + "/" + UNREVEALED_IMAGE);
+            int gen = generationOf(loadSaleConfig(), tokenId);
+            attributeList.add(getAttributeMap(GENERATION, StdLib.jsonSerialize(gen)));
+            p.put(ATTRIBUTES, attributeList);
+            return p;
         }
-        ByteString sugar = propertiesSugarMap.get(tokenId);
-        if (sugar != null) {
-            attributes.add(getAttributeMap(SUGAR, sugar.toString()));
-        }
-        p.put(ATTRIBUTES, attributes);
-        return StdLib.jsonSerialize(p);
+        p.put(IMAGE, getImageBaseURI() + "/" + id + ".png");
+        attributeList.add(getAttributeMap(TYPE, CandyAttributes.isVillain(attributes) ? TYPE_VILLAIN : TYPE_VILLAGER));
+        attributeList.add(getAttributeMap(SUGAR, StdLib.jsonSerialize(CandyAttributes.sugar(attributes))));
+        attributeList.add(getAttributeMap(GENERATION, StdLib.jsonSerialize(CandyAttributes.generation(attributes))));
+        p.put(ATTRIBUTES, attributeList);
+        return p;
     }
 
     private static Map<String, String> getAttributeMap(String trait, String value) {
@@ -414,32 +501,59 @@ public class CandyClashNFT {
         return m;
     }
 
-    private static int maxMintAmount() {
-        return Storage.getInt(ctx, maxMintAmountKey);
+    private static String getImageBaseURI() {
+        return Storage.getString(ctx, imageBaseUriKey);
+    }
+
+    /**
+     * Scans the token ids after {@code lastTokenId} in ascending order and collects
+     * up to {@code size} candies of the requested type.
+     */
+    private static List<Integer> findCandies(boolean villain, int lastTokenId, int size) {
+        List<Integer> result = new List<>();
+        int totalSupply = totalSupply();
+        for (int id = lastTokenId + 1; id <= totalSupply && result.size() != size; id++) {
+            int attributes = attributesOf(new ByteString(id));
+            if (attributes != 0 && CandyAttributes.isVillain(attributes) == villain) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores the royalties together with their legacy JSON representation so that
+     * neither royalty query has to serialize anything.
+     */
+    private static void saveRoyaltyConfig(String address, int amount) {
+        Map<String, Object> map = new Map<>();
+        map.put(ROYALTIES_ADDRESS, address);
+        map.put(ROYALTIES_VALUE, StdLib.jsonSerialize(amount));
+        Object[] arr = new Object[] { map };
+        Hash160 receiver = new Hash160(StdLib.base58CheckDecode(address).last(20));
+        RoyaltyConfig config = new RoyaltyConfig(receiver, amount, StdLib.jsonSerialize(arr));
+        Storage.put(ctx, royaltyConfigKey, StdLib.serialize(config));
     }
 
-    private static void incrementBalanceByOne(Hash160 owner) {
-        balances.put(owner.toByteArray(), getBalanceOf(owner) + 1);
+    private static RoyaltyConfig loadRoyaltyConfig() {
+        return (RoyaltyConfig) StdLib.deserialize(Storage.get(ctx, royaltyConfigKey));
     }
 
-    private static void decrementBalanceByOne(Hash160 owner) {
-        balances.put(owner.toByteArray(), getBalanceOf(owner) - 1);
+    private static SaleConfig loadSaleConfig() {
+        return (SaleConfig) StdLib.deserialize(Storage.get(ctx, saleConfigKey));
     }
 
-    private static String getImageBaseURI() {
-        return Storage.getString(ctx, imageBaseUriKey);
+    private static void saveSaleConfig(SaleConfig config) {
+        Storage.put(ctx, saleConfigKey, StdLib.serialize(config));
     }
 
-    private static int getBalanceOf(Hash160 owner) {
-        if (balances.get(owner.toByteArray()) == null) {
-            return 0;
-        }
-        return balances.get(owner.toByteArray()).toInt();
+    @Safe
+    public static int schemaVersion() {
+        return Storage.getIntOrZero(ctx, schemaVersionKey);
     }
 
-    private static void incrementTotalSupplyByOne() {
-        int updatedTotalSupply = Storage.getInt(ctx, totalSupplyKey) + 1;
-        Storage.put(ctx, totalSupplyKey, updatedTotalSupply);
+    private static boolean isMigrating() {
+        return schemaVersion() < SCHEMA_VERSION;
     }
 
     private static void onlyOwner() {
@@ -448,47 +562,63 @@ public class CandyClashNFT {
 
     /* OWNER ONLY METHODS */
 
-    public static String getVillagerCandies(int from, int size) {
+    /**
+     * Returns up to {@code size} villager candies with a token id greater than
+     * {@code lastTokenId} as JSON array. Pass the last token id of the previous
+     * page to continue, or 0 to start. Candies that are not revealed yet are
+     * skipped.
+     */
+    public static String getVillagerCandies(int lastTokenId, int size) {
         onlyOwner();
-        Iterator<Struct<ByteString, ByteString>> iterator = villagerCandies.find(FindOptions.RemovePrefix);
-        List<Integer> result = new List<>();
-        int count = 0;
-        while (iterator.next() && result.size() != size) {
-            if (count >= from) {
-                result.add(iterator.get().key.toInt());
-            }
-            count++;
-        }
-        return StdLib.jsonSerialize(result);
+        return StdLib.jsonSerialize(findCandies(false, lastTokenId, size));
     }
 
-    public static String getVillainCandies(int from, int size) {
+    /**
+     * Returns up to {@code size} villain candies with a token id greater than
+     * {@code lastTokenId} as JSON array, see {@link #getVillagerCandies}.
+     */
+    public static String getVillainCandies(int lastTokenId, int size) {
         onlyOwner();
-        Iterator<Struct<ByteString, ByteString>> iterator = villainCandies.find(FindOptions.RemovePrefix);
-        List<Integer> result = new List<>();
-        int count = 0;
-        while (iterator.next() && result.size() != size) {
-            if (count >= from) {
-                result.add(iterator.get().key.toInt());
-            }
-            count++;
-        }
-        return StdLib.jsonSerialize(result);
+        return StdLib.jsonSerialize(findCandies(true, lastTokenId, size));
+    }
+
+    /**
+     * Returns an iterator over the token ids of all villager candies, meant to be
+     * traversed through an RPC session instead of being paged inside the VM.
+     */
+    public static Iterator<ByteString> villagerTokens() {
+        onlyOwner();
+        return (Iterator<ByteString>) villagerCandies.find((byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
+    }
+
+    /**
+     * Returns an iterator over the token ids of all villain candies, see
+     * {@link #villagerTokens}.
+     */
+    public static Iterator<ByteString> villainTokens() {
+        onlyOwner();
+        return (Iterator<ByteString>) villainCandies.find((byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
     }
 
     public static void updateStakingContract(Hash160 contract) {
         onlyOwner();
-        Storage.put(ctx, stakingContractKey, contract);
+        SaleConfig config = loadSaleConfig();
+        config.stakingContract = contract;
+        saveSaleConfig(config);
     }
 
     public static void updateGasPrice(int amount) {
         onlyOwner();
-        Storage.put(ctx, gasPriceKey, amount);
+        SaleConfig config = loadSaleConfig();
+        config.gasPrice = amount;
+        saveSaleConfig(config);
     }
 
     public static void updateCandyPrice(int amount) {
         onlyOwner();
-        Storage.put(ctx, candyPriceKey, amount);
+        SaleConfig config = loadSaleConfig();
+        config.candyPrice = amount;
+        saveSaleConfig(config);
     }
 
     public static void updateImageBaseURI(String uri) {
@@ -496,9 +626,136 @@ public class CandyClashNFT {
         Storage.put(ctx, imageBaseUriKey, uri);
     }
 
+    /**
+     * Enables or disables lazy reveal for future mints. Candies minted while it is
+     * enabled are revealed on their first transfer or stake, or by {@link #reveal}.
+     */
+    public static void updateLazyReveal(boolean lazyReveal) {
+        onlyOwner();
+        SaleConfig config = loadSaleConfig();
+        config.lazyReveal = lazyReveal;
+        saveSaleConfig(config);
+    }
+
+    /**
+     * Reveals up to {@code limit} candies in token id order, continuing after the
+     * last candy handled by the previous call. Candies that were revealed already
+     * are skipped. Returns the last handled token id.
+     */
+    public static int reveal(int limit) {
+        onlyOwner();
+        assert limit > 0 : "invalid limit";
+        SaleConfig config = loadSaleConfig();
+        RandomStream random = RandomStream.seed();
+        int cursor = Storage.getIntOrZero(ctx, revealCursorKey);
+        int last = cursor + limit;
+        int totalSupply = totalSupply();
+        if (last > totalSupply) {
+            last = totalSupply;
+        }
+        for (int id = cursor + 1; id <= last; id++) {
+            ByteString tokenId = new ByteString(id);
+            if (attributesOf(tokenId) == 0) {
+                Hash160 owner = ownerOf(tokenId);
+                int attributes = revealCandy(random, tokenId, generationOf(config, tokenId), owner);
+                NEP11Core.tokensOfMap(owner).put(tokenId, attributes);
+            }
+        }
+        Storage.put(ctx, revealCursorKey, last);
+        return last;
+    }
+
+    /**
+     * @param address = Address that receives the royalties.
+     * @param amount  = Royalties in basis points of the sale price.
+     */
+    public static void updateRoyalties(String address, int amount) {
+        onlyOwner();
+        assert amount >= 0 && amount <= 10000 : "invalid amount";
+        saveRoyaltyConfig(address, amount);
+    }
+
     public static void updatePause(boolean paused) {
         onlyOwner();
-        Storage.put(ctx, isPausedKey, paused ? 1 : 0);
+        SaleConfig config = loadSaleConfig();
+        config.paused = paused;
+        saveSaleConfig(config);
+    }
+
+    /* MIGRATION */
+
+    /**
+     * Moves the legacy configuration keys into the sale and royalty records. Runs
+     * once when the contract is updated from the legacy layout. The candies
+     * themselves are moved by {@link #migrate}.
+     */
+    private static void migrateConfig() {
+        ByteString stakingContract = Storage.get(ctx, legacyStakingContractKey);
+        saveSaleConfig(new SaleConfig(
+                Storage.getIntOrZero(ctx, legacyIsPausedKey) == 1,
+                stakingContract != null ? new Hash160(stakingContract) : null,
+                new Hash160(Storage.get(ctx, legacyCandyHashKey)),
+                Storage.getIntOrZero(ctx, legacyGasPriceKey),
+                Storage.getIntOrZero(ctx, legacyCandyPriceKey),
+                Storage.getIntOrZero(ctx, legacyMaxTokensAmountKey),
+                Storage.getIntOrZero(ctx, legacyMaxGenesisAmountKey),
+                Storage.getIntOrZero(ctx, legacyMaxMintAmountKey),
+                false));
+        saveRoyaltyConfig(Storage.getString(ctx, legacyRoyaltiesReceiverKey),
+                Storage.getIntOrZero(ctx, legacyRoyaltiesAmountKey));
+        Storage.delete(ctx, legacyGasPriceKey);
+        Storage.delete(ctx, legacyCandyPriceKey);
+        Storage.delete(ctx, legacyCandyHashKey);
+        Storage.delete(ctx, legacyMaxTokensAmountKey);
+        Storage.delete(ctx, legacyMaxGenesisAmountKey);
+        Storage.delete(ctx, legacyIsPausedKey);
+        Storage.delete(ctx, legacyRoyaltiesReceiverKey);
+        Storage.delete(ctx, legacyRoyaltiesAmountKey);
+        Storage.delete(ctx, legacyMaxMintAmountKey);
+        Storage.delete(ctx, legacyStakingContractKey);
+    }
+
+    /**
+     * Moves up to {@code limit} candies from the legacy property maps to the packed
+     * attributes, in token id order and continuing after the last candy handled
+     * by the previous call. Once all candies are migrated the schema version is
+     * raised and the legacy read paths are switched off.
+     *
+     * @return the last handled token id.
+     */
+    public static int migrate(int limit) {
+        onlyOwner();
+        assert limit > 0 : "invalid limit";
+        assert isMigrating() : "already migrated";
+        SaleConfig config = loadSaleConfig();
+        int cursor = Storage.getIntOrZero(ctx, migrationCursorKey);
+        int last = cursor + limit;
+        int totalSupply = totalSupply();
+        if (last > totalSupply) {
+            last = totalSupply;
+        }
+        for (int id = cursor + 1; id <= last; id++) {
+            ByteString tokenId = new ByteString(id);
+            int attributes = legacyAttributesOf(config, tokenId);
+            if (attributes != 0) {
+                attributesMap.put(tokenId, attributes);
+                NEP11Core.tokensOfMap(ownerOf(tokenId)).put(tokenId, attributes);
+                legacyTokens.delete(tokenId);
+                legacyNameMap.delete(tokenId);
+                legacyDescriptionMap.delete(tokenId);
+                legacyImageMap.delete(tokenId);
+                legacyTokenURIMap.delete(tokenId);
+                legacySugarMap.delete(tokenId);
+                legacyTypeMap.delete(tokenId);
+            }
+        }
+        if (last == totalSupply) {
+            Storage.put(ctx, schemaVersionKey, SCHEMA_VERSION);
+            Storage.delete(ctx, migrationCursorKey);
+        } else {
+            Storage.put(ctx, migrationCursorKey, last);
+        }
+        return last;
     }
 
     /* CONTRACT MANAGEMENT */
@@ -511,18 +768,15 @@ public class CandyClashNFT {
             Hash160 owner = (Hash160) arr[0];
             Helper.assertTrue(Hash160.isValid(owner));
             Storage.put(ctx, ownerkey, owner);
-            Storage.put(ctx, gasPriceKey, (int) arr[1]);
-            Storage.put(ctx, candyPriceKey, (int) arr[2]);
             Hash160 candyHash = (Hash160) arr[3];
             Helper.assertTrue(Hash160.isValid(candyHash));
-            Storage.put(ctx, candyHashKey, candyHash);
             Storage.put(ctx, imageBaseUriKey, (String) arr[4]);
-            Storage.put(ctx, maxTokensAmountKey, (int) arr[5]);
-            Storage.put(ctx, maxGenesisAmountKey, (int) arr[6]);
-            Storage.put(ctx, isPausedKey, (int) arr[7]);
-            Storage.put(ctx, royaltiesReceiverKey, (String) arr[8]);
-            Storage.put(ctx, royaltiesAmountKey, (int) arr[9]);
-            Storage.put(ctx, maxMintAmountKey, (int) arr[10]);
+            saveRoyaltyConfig((String) arr[8], (int) arr[9]);
+            saveSaleConfig(new SaleConfig((boolean) arr[7], null, candyHash, (int) arr[1], (int) arr[2],
+                    (int) arr[5], (int) arr[6], (int) arr[10], false));
+            Storage.put(ctx, schemaVersionKey, SCHEMA_VERSION);
+        } else if (isMigrating() && Storage.get(ctx, saleConfigKey) == null) {
+            migrateConfig();
         }
     }
 
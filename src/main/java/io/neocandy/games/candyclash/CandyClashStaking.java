@@ -4,7 +4,8 @@ import io.neow3j.devpack.ByteString;
 import io.neow3j.devpack.Contract;
 import io.neow3j.devpack.Hash160;
 import io.neow3j.devpack.Helper;
-import io.neow3j.devpack.Map;
+import io.neow3j.devpack.Iterator;
+import io.neow3j.devpack.List;
 import io.neow3j.devpack.Runtime;
 import io.neow3j.devpack.Storage;
 import io.neow3j.devpack.StorageContext;
@@ -17,22 +18,21 @@ import io.neow3j.devpack.annotations.OnNEP17Payment;
 import io.neow3j.devpack.annotations.Permission;
 import io.neow3j.devpack.annotations.Safe;
 import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.constants.FindOptions;
 import io.neow3j.devpack.contracts.ContractManagement;
 import io.neow3j.devpack.contracts.LedgerContract;
-import io.neow3j.devpack.events.Event1Arg;
+import io.neow3j.devpack.contracts.StdLib;
 import io.neow3j.devpack.events.Event3Args;
+import io.neow3j.devpack.events.Event4Args;
 
 @ManifestExtra(key = "name", value = "CandyClash Staking")
 @ManifestExtra(key = "author", value = "NeoCandy")
 @ManifestExtra(key = "description", value = "CandyClash Staking Contract")
 @ManifestExtra(key = "email", value = "hello@neocandy.io")
-@Permission(contract = "*", methods = { "transfer", "balanceOf" })
+@Permission(contract = "*", methods = { "transfer", "balanceOf", "stakingAttributes" })
 @Permission(contract = "0xfffdc93764dbaddd97c48f252a53ea4643faa3fd", methods = "*")
 public class CandyClashStaking {
 
-    @DisplayName("debug")
-    private static Event1Arg<Object> onDebug;
-
     @DisplayName("tokenStaked")
     private static Event3Args<Hash160, ByteString, Integer> onTokenStaked;
 
@@ -45,34 +45,47 @@ public class CandyClashStaking {
     @DisplayName("villainCandyClaim")
     static Event3Args<ByteString, Integer, Boolean> onVillainCandyClaim;
 
+    /**
+     * Emitted once per claim in compact event mode instead of one claim event per
+     * token. The per-token amounts are packed with StdLib.serialize in the same
+     * order as the token ids.
+     */
+    @DisplayName("claimBatch")
+    static Event4Args<ByteString[], ByteString, Integer, Boolean> onClaimBatch;
+
     private static final int BLOCKS_PER_DAY = 4 * 60 * 24;
+    // power of two covering the token ids of the whole collection (max 10000)
+    private static final int VILLAIN_TREE_SIZE = 16384;
+    // version of the storage layout, 0 is the layout with one key per counter
+    private static final int SCHEMA_VERSION = 1;
 
     private static final byte[] ownerKey = Helper.toByteArray((byte) 1);
     private static final byte[] nftContractkey = Helper.toByteArray((byte) 2);
-    private static final byte[] totalSugarStakedKey = Helper.toByteArray((byte) 3);
-    private static final byte[] candyPerSugarKey = Helper.toByteArray((byte) 4);
-    private static final byte[] totalVillagerCandiesStakedKey = Helper.toByteArray((byte) 5);
     private static final byte[] candiesContractKey = Helper.toByteArray((byte) 6);
     private static final byte[] pausedKey = Helper.toByteArray((byte) 7);
     private static final byte[] minStakeBlockCountKey = Helper.toByteArray((byte) 8);
-    private static final byte[] totalCandiesEarnedKey = Helper.toByteArray((byte) 9);
     private static final byte[] dailyCandyRateKey = Helper.toByteArray((byte) 10);
-    private static final byte[] lastClaimBlockIndexKey = Helper.toByteArray((byte) 11);
-    private static final byte[] unaccountedRewardsKey = Helper.toByteArray((byte) 12);
     private static final byte[] taxAmountKey = Helper.toByteArray((byte) 13);
-    private static final byte[] totalVillainCandiesStakedKey = Helper.toByteArray((byte) 17);
-
-    // CUSTOM METADATA
-    private static final String SUGAR = "sugar";
-    private static final String GENERATION = "generation";
-    private static final String TYPE = "type";
-    private static final String TYPE_VILLAIN = "Villain";
-    private static final String TYPE_VILLAGER = "Villager";
+    private static final byte[] stateKey = Helper.toByteArray((byte) 19);
+    private static final byte[] stakedTokensOfKey = Helper.toByteArray((byte) 20);
+    private static final byte[] compactEventsKey = Helper.toByteArray((byte) 24);
+    private static final byte[] schemaVersionKey = Helper.toByteArray((byte) 25);
+    // LEGACY STORAGE KEYS, read until the migration to the current layout finished
+    private static final byte[] legacyTotalSugarStakedKey = Helper.toByteArray((byte) 3);
+    private static final byte[] legacyCandyPerSugarKey = Helper.toByteArray((byte) 4);
+    private static final byte[] legacyTotalVillagerCandiesStakedKey = Helper.toByteArray((byte) 5);
+    private static final byte[] legacyTotalCandiesEarnedKey = Helper.toByteArray((byte) 9);
+    private static final byte[] legacyLastClaimBlockIndexKey = Helper.toByteArray((byte) 11);
+    private static final byte[] legacyUnaccountedRewardsKey = Helper.toByteArray((byte) 12);
+    private static final byte[] legacyTotalVillainCandiesStakedKey = Helper.toByteArray((byte) 17);
 
     private static final StorageContext ctx = Storage.getStorageContext();
-    private static final StorageMap villainCandies = new StorageMap(ctx, Helper.toByteArray((byte) 14));
-    private static final StorageMap villagerCandies = new StorageMap(ctx, Helper.toByteArray((byte) 15));
-    private static final StorageMap ownerOfMap = new StorageMap(ctx, Helper.toByteArray((byte) 16));
+    private static final StorageMap stakes = new StorageMap(ctx, Helper.toByteArray((byte) 18));
+    private static final StorageMap villagerAccounts = new StorageMap(ctx, Helper.toByteArray((byte) 22));
+    private static final StorageMap villainTree = new StorageMap(ctx, Helper.toByteArray((byte) 23));
+    private static final StorageMap legacyVillainStakes = new StorageMap(ctx, Helper.toByteArray((byte) 14));
+    private static final StorageMap legacyVillagerStakes = new StorageMap(ctx, Helper.toByteArray((byte) 15));
+    private static final StorageMap legacyOwnerOfMap = new StorageMap(ctx, Helper.toByteArray((byte) 16));
 
     /* RECEIVING PAYMENTS */
 
@@ -80,6 +93,9 @@ public class CandyClashStaking {
     public static void onPayment(Hash160 from, int amount, Object data) {
         assert (from == owner()) : "onlyOwner";
         assert (Runtime.getCallingScriptHash() == candyContractHash()) : "onlyCandy";
+        StakingState state = loadState();
+        state.rewardBudget = state.rewardBudget + amount;
+        saveState(state);
         onPayment.fire(from, amount, data);
     }
 
@@ -88,145 +104,313 @@ public class CandyClashStaking {
         isPaused();
         assert (Runtime.getCallingScriptHash() == nftContractHash()) : "invalid contract";
 
-        Map<String, String> properties = getProperties(tokenId);
-        if (properties.get(TYPE).equals(TYPE_VILLAIN)) {
-            int sugar = Integer.valueOf(properties.get(SUGAR));
-            addVillainCandy(sender, tokenId, sugar);
-        } else {
-            addVillagerCandy(sender, tokenId);
+        StakingState state = loadState();
+        updateEarnings(state);
+        VillagerAccount account = getVillagerAccount(sender);
+        addCandy(state, account, tokenId, newStakeRecord(sender, getStakingAttributes(tokenId)));
+        saveVillagerAccount(sender, account);
+        saveState(state);
+    }
+
+    /**
+     * Stakes several candies that the NFT contract already moved to this contract
+     * in one call. The NFT contract passes the packed attributes of the candies,
+     * so the whole batch needs a single earnings update and one write per
+     * accumulator.
+     *
+     * @param owner      = Account that staked the candies.
+     * @param tokenIds   = Candies that were transferred to this contract.
+     * @param attributes = Packed attributes of the candies, see CandyAttributes.
+     */
+    public static void stakeBatch(Hash160 owner, ByteString[] tokenIds, int[] attributes) {
+        isPaused();
+        assert (Runtime.getCallingScriptHash() == nftContractHash()) : "invalid contract";
+        assert (tokenIds.length == attributes.length) : "invalid attributes";
+
+        StakingState state = loadState();
+        updateEarnings(state);
+        VillagerAccount account = getVillagerAccount(owner);
+        for (int i = 0; i < tokenIds.length; i++) {
+            addCandy(state, account, tokenIds[i], newStakeRecord(owner, attributes[i]));
         }
-        ownerOfMap.put(tokenId, sender);
-        onDebug.fire(Runtime.getCallingScriptHash());
+        saveVillagerAccount(owner, account);
+        saveState(state);
     }
 
     public static int claim(ByteString[] tokenIds, Boolean unstake, Hash160 receiver) {
         isPaused();
-        updateEarnings();
+        assert (Runtime.checkWitness(receiver)) : "not owner";
+        StakingState state = loadState();
+        updateEarnings(state);
+        VillagerAccount account = getVillagerAccount(receiver);
+        boolean compactEvents = compactEvents();
+        // only unstaking villager candies rolls, so plain claims skip the syscall
+        RandomStream random = unstake ? RandomStream.seed() : null;
+        int[] amounts = new int[tokenIds.length];
         int claimAmount = 0;
         for (int i = 0; i < tokenIds.length; i++) {
-            Hash160 owner = getOwnerOfToken(tokenIds[i]);
-            assert (Runtime.checkWitness(owner) && owner == receiver) : "not owner";
-            assert (maxCandiesToEarn() > 0) : "no more candies to earn";
-            Map<String, String> properties = getProperties(tokenIds[i]);
-            if (properties.get(TYPE).equals(TYPE_VILLAIN)) {
-                int sugar = Integer.valueOf(properties.get(SUGAR));
-                claimAmount += claimVillainCandy(tokenIds[i], unstake, sugar, owner);
-            } else {
-                claimAmount += claimVillagerCandy(tokenIds[i], unstake, owner);
-            }
+            amounts[i] = claimToken(state, account, random, tokenIds[i], unstake, receiver, !compactEvents);
+            claimAmount += amounts[i];
         }
-        if (claimAmount == 0) {
-            return 0;
+        saveVillagerAccount(receiver, account);
+        if (compactEvents) {
+            onClaimBatch.fire(tokenIds, StdLib.serialize(amounts), claimAmount, unstake);
+        }
+        claimAmount = payout(state, receiver, claimAmount);
+        // the candies are sent back only after the state and the account are saved,
+        // so a staker that re-enters from onNEP11Payment sees the updated stakes
+        if (unstake) {
+            for (int i = 0; i < tokenIds.length; i++) {
+                transferNFT(receiver, tokenIds[i]);
+            }
         }
-        transferCandy(receiver, claimAmount);
         return claimAmount;
     }
 
-    private static void addVillainCandy(Hash160 owner, ByteString tokenId, int sugar) {
-        incrementTotalSugarStaked(sugar);
-        int candyPerSugar = candyPerSugar();
-        updateVillainCandyStake(tokenId, candyPerSugar);
-        incrementTotalVillainCandiesStaked(1);
-        onTokenStaked.fire(owner, tokenId, candyPerSugar);
+    /**
+     * Claims the rewards of all villager candies of {@code owner} at once and of
+     * its villain candies with a token id from {@code lastTokenId + 1} to
+     * {@code lastTokenId + limit}. Pass 0 to start and {@code lastTokenId + limit}
+     * of the previous call to continue. The villager part costs the same
+     * regardless of how many candies are staked. The rewards are paid out with a
+     * single transfer.
+     */
+    public static int claimAll(Hash160 owner, int lastTokenId, int limit) {
+        isPaused();
+        assert (Runtime.checkWitness(owner)) : "not owner";
+        assert (lastTokenId >= 0 && limit > 0) : "invalid page";
+        // an account claim moves the claimed index past the checkpoints of villager
+        // candies that are still waiting in the legacy layout
+        assert (!isMigrating()) : "migration pending";
+        StakingState state = loadState();
+        updateEarnings(state);
+        assert (state.rewardBudget > 0) : "no more candies to earn";
+        VillagerAccount account = getVillagerAccount(owner);
+        int claimAmount = claimVillagerAccount(state, account);
+        saveVillagerAccount(owner, account);
+
+        boolean compactEvents = compactEvents();
+        List<ByteString> tokenIds = new List<>();
+        List<Integer> amounts = new List<>();
+        int endTokenId = lastTokenId + limit;
+        if (endTokenId > VILLAIN_TREE_SIZE) {
+            endTokenId = VILLAIN_TREE_SIZE;
+        }
+        // the page is a token id range, so it does not shift when stakes are added
+        // or removed between calls
+        for (int id = lastTokenId + 1; id <= endTokenId; id++) {
+            ByteString tokenId = new ByteString(id);
+            StakeRecord stake = getStake(tokenId);
+            if (stake != null && stake.villain && stake.owner == owner) {
+                int amount = claimVillainCandy(state, tokenId, stake, false);
+                if (!compactEvents) {
+                    onVillainCandyClaim.fire(tokenId, amount, false);
+                }
+                tokenIds.add(tokenId);
+                amounts.add(amount);
+                claimAmount += amount;
+            }
+        }
+        if (compactEvents) {
+            onClaimBatch.fire(tokenIds.toArray(), StdLib.serialize(amounts), claimAmount, false);
+        }
+        return payout(state, owner, claimAmount);
     }
 
-    private static void addVillagerCandy(Hash160 owner, ByteString tokenId) {
-        updateEarnings();
-        updateVillagerCandyStake(tokenId, currentBlockIndex());
-        incrementTotalVillagerCandiesStaked(1);
-        onTokenStaked.fire(owner, tokenId, LedgerContract.currentIndex());
+    private static int claimToken(StakingState state, VillagerAccount account, RandomStream random,
+            ByteString tokenId, boolean unstake, Hash160 receiver, boolean emitEvent) {
+        StakeRecord stake = getStake(tokenId);
+        if (stake == null) {
+            stake = legacyStake(state, tokenId);
+            assert (stake != null) : "not staked";
+            assert (stake.owner == receiver) : "not owner";
+            migrateStake(state, account, tokenId, stake);
+        }
+        assert (stake.owner == receiver) : "not owner";
+        assert (state.rewardBudget > 0) : "no more candies to earn";
+        int claimAmount = 0;
+        if (stake.villain) {
+            claimAmount = claimVillainCandy(state, tokenId, stake, unstake);
+            if (emitEvent) {
+                onVillainCandyClaim.fire(tokenId, claimAmount, unstake);
+            }
+        } else {
+            claimAmount = claimVillagerCandy(state, account, random, tokenId, stake, unstake);
+            if (emitEvent) {
+                onVillagerCandyClaim.fire(tokenId, claimAmount, unstake);
+            }
+        }
+        return claimAmount;
     }
 
-    private static int claimVillagerCandy(ByteString tokenId, boolean unstake, Hash160 owner) {
-        int stake = getVillagerCandyStake(tokenId);
-        assert !unstake && currentBlockIndex() - stake >= minStakeBlockCount() : "minimum stake duration not reached";
-        int claimAmount = 0;
-        if (totalCandiesEarned() < maxCandiesToEarn()) {
-            claimAmount = (currentBlockIndex() - stake) * dailyCandyRate() / BLOCKS_PER_DAY;
+    private static int payout(StakingState state, Hash160 receiver, int claimAmount) {
+        distributeTaxes(state);
+        if (claimAmount == 0) {
+            saveState(state);
+            return 0;
+        }
+        transferCandy(state, receiver, claimAmount);
+        return claimAmount;
+    }
+
+    private static void addCandy(StakingState state, VillagerAccount account, ByteString tokenId,
+            StakeRecord stake) {
+        if (stake.villain) {
+            addVillainCandy(state, tokenId, stake);
         } else {
-            claimAmount = (lastClaimBlockIndex() - stake) * dailyCandyRate() / BLOCKS_PER_DAY;
+            addVillagerCandy(state, account, tokenId, stake);
         }
+        new StorageMap(ctx, createStakedTokensOfPrefix(stake.owner)).put(tokenId, 1);
+    }
+
+    private static void addVillainCandy(StakingState state, ByteString tokenId, StakeRecord stake) {
+        state.totalSugarStaked = state.totalSugarStaked + stake.sugar;
+        stake.checkpoint = state.candyPerSugar;
+        saveStake(tokenId, stake);
+        updateVillainTree(tokenId.toInt(), stake.sugar);
+        state.totalVillainCandiesStaked = state.totalVillainCandiesStaked + 1;
+        onTokenStaked.fire(stake.owner, tokenId, stake.checkpoint);
+    }
+
+    private static void addVillagerCandy(StakingState state, VillagerAccount account, ByteString tokenId,
+            StakeRecord stake) {
+        stake.checkpoint = state.villagerRewardIndex;
+        saveStake(tokenId, stake);
+        account.count = account.count + 1;
+        account.checkpointSum = account.checkpointSum + stake.checkpoint;
+        state.totalVillagerCandiesStaked = state.totalVillagerCandiesStaked + 1;
+        onTokenStaked.fire(stake.owner, tokenId, stake.blockIndex);
+    }
+
+    private static int claimVillagerCandy(StakingState state, VillagerAccount account, RandomStream random,
+            ByteString tokenId, StakeRecord stake, boolean unstake) {
+        assert !(unstake && currentBlockIndex() - stake.blockIndex < minStakeBlockCount())
+                : "minimum stake duration not reached";
+        int checkpoint = villagerCheckpoint(account, stake);
+        int claimAmount = (state.villagerRewardIndex - checkpoint) / BLOCKS_PER_DAY;
         if (unstake) {
-            boolean steal = Runtime.getRandom() % 2 == 0;
+            boolean steal = RandomStream.next(random, 2) == 0;
             if (steal) {
-                payTax(claimAmount);
+                collectTax(state, claimAmount);
                 claimAmount = 0;
             }
-            deleteVillagerCandyStake(tokenId);
-            decrementTotalVillagerCandiesStaked(1);
-            deleteOwnerOfToken(tokenId);
-            transferNFT(owner, tokenId);
+            account.count = account.count - 1;
+            account.checkpointSum = account.checkpointSum - checkpoint;
+            deleteStake(tokenId, stake);
+            state.totalVillagerCandiesStaked = state.totalVillagerCandiesStaked - 1;
         } else {
             int taxedAmount = claimAmount * taxAmount() / 100;
-            payTax(taxedAmount);
+            collectTax(state, taxedAmount);
             claimAmount = claimAmount - taxedAmount;
-            updateVillagerCandyStake(tokenId, currentBlockIndex());
+            account.checkpointSum = account.checkpointSum + state.villagerRewardIndex - checkpoint;
+            stake.checkpoint = state.villagerRewardIndex;
+            stake.blockIndex = currentBlockIndex();
+            saveStake(tokenId, stake);
         }
-        onVillagerCandyClaim.fire(tokenId, claimAmount, unstake);
         return claimAmount;
     }
 
-    private static int claimVillainCandy(ByteString tokenId, boolean unstake, int sugar, Hash160 owner) {
-        int stake = getVillainCandyStake(tokenId);
-        int claimAmount = sugar * (candyPerSugar() - stake);
+    /**
+     * Claims the rewards of all villager candies of an account by moving every
+     * checkpoint to the current reward index in one step.
+     */
+    private static int claimVillagerAccount(StakingState state, VillagerAccount account) {
+        if (account.count == 0) {
+            return 0;
+        }
+        int claimAmount = villagerAccountClaimAmount(state, account);
+        int taxedAmount = claimAmount * taxAmount() / 100;
+        collectTax(state, taxedAmount);
+        account.checkpointSum = account.count * state.villagerRewardIndex;
+        account.claimedIndex = state.villagerRewardIndex;
+        return claimAmount - taxedAmount;
+    }
+
+    private static int claimVillainCandy(StakingState state, ByteString tokenId, StakeRecord stake,
+            boolean unstake) {
+        int claimAmount = stake.sugar * (state.candyPerSugar - stake.checkpoint);
         if (unstake) {
-            decrementTotalSugarStaked(sugar);
-            deleteVillainCandyStake(tokenId);
-            decrementTotalVillainCandiesStaked(1);
-            deleteOwnerOfToken(tokenId);
-            transferNFT(owner, tokenId);
+            state.totalSugarStaked = state.totalSugarStaked - stake.sugar;
+            deleteStake(tokenId, stake);
+            updateVillainTree(tokenId.toInt(), -stake.sugar);
+            state.totalVillainCandiesStaked = state.totalVillainCandiesStaked - 1;
         } else {
-            updateVillainCandyStake(tokenId, candyPerSugar());
+            stake.checkpoint = state.candyPerSugar;
+            saveStake(tokenId, stake);
         }
-        onVillainCandyClaim.fire(tokenId, claimAmount, unstake);
         return claimAmount;
     }
 
-    private static void payTax(int amount) {
-        if (totalSugarStaked() == 0) {
-            incrementUnaccountedRewards(amount);
+    /**
+     * A full account claim moves all checkpoints of the account to its claimed
+     * index, so the effective checkpoint of a villager candy is the later of both.
+     */
+    private static int villagerCheckpoint(VillagerAccount account, StakeRecord stake) {
+        return stake.checkpoint > account.claimedIndex ? stake.checkpoint : account.claimedIndex;
+    }
+
+    private static int villagerAccountClaimAmount(StakingState state, VillagerAccount account) {
+        return (account.count * state.villagerRewardIndex - account.checkpointSum) / BLOCKS_PER_DAY;
+    }
+
+    private static void collectTax(StakingState state, int amount) {
+        state.unaccountedRewards = state.unaccountedRewards + amount;
+    }
+
+    /**
+     * Folds all taxes collected during a claim into candyPerSugar with a single
+     * division. The remainder stays unaccounted and is carried over to the next
+     * claim instead of being truncated away.
+     */
+    private static void distributeTaxes(StakingState state) {
+        if (state.totalSugarStaked == 0) {
             return;
         }
-        int increment = (amount + unaccountedRewards()) / totalSugarStaked();
-        incrementCandyPerSugar(increment);
-        resetUnaccountedRewards();
-
+        state.candyPerSugar = state.candyPerSugar + state.unaccountedRewards / state.totalSugarStaked;
+        state.unaccountedRewards = state.unaccountedRewards % state.totalSugarStaked;
     }
 
     /* UTIL */
 
     @Safe
     public static int availableClaimAmount(ByteString[] tokenIds) {
+        StakingState state = loadState();
+        if (state.rewardBudget == 0) {
+            return 0;
+        }
+        updateEarnings(state);
         int claimAmount = 0;
         for (int i = 0; i < tokenIds.length; i++) {
-            if (maxCandiesToEarn() == 0) {
-                return 0;
+            StakeRecord stake = getStake(tokenIds[i]);
+            if (stake == null) {
+                stake = legacyStake(state, tokenIds[i]);
             }
-            Map<String, String> properties = getProperties(tokenIds[i]);
-            if (properties.get(TYPE).equals(TYPE_VILLAIN)) {
-                int sugar = Integer.valueOf(properties.get(SUGAR));
-                int stake = getVillainCandyStake(tokenIds[i]);
-                claimAmount += sugar * (candyPerSugar() - stake);
+            assert (stake != null) : "not staked";
+            if (stake.villain) {
+                claimAmount += stake.sugar * (state.candyPerSugar - stake.checkpoint);
             } else {
-                int stake = getVillagerCandyStake(tokenIds[i]);
-                if (totalCandiesEarned() < maxCandiesToEarn()) {
-                    claimAmount += (currentBlockIndex() - stake) * dailyCandyRate() / BLOCKS_PER_DAY;
-                } else {
-                    claimAmount += (lastClaimBlockIndex() - stake) * dailyCandyRate() / BLOCKS_PER_DAY;
-                }
+                VillagerAccount account = getVillagerAccount(stake.owner);
+                claimAmount += (state.villagerRewardIndex - villagerCheckpoint(account, stake)) / BLOCKS_PER_DAY;
             }
         }
         return claimAmount;
 
     }
 
-    private static Map<String, String> getProperties(ByteString tokenId) {
+    /**
+     * Reads the packed attributes of the candy once at stake time, so that claims
+     * and unstakes never have to call back into the NFT contract.
+     */
+    private static int getStakingAttributes(ByteString tokenId) {
         Hash160 nftContract = nftContractHash();
-        return (Map<String, String>) Contract.call(nftContract, "properties", CallFlags.All, new Object[] { tokenId });
+        int[] attributes = (int[]) Contract.call(nftContract, "stakingAttributes", CallFlags.ReadOnly,
+                new Object[] { new ByteString[] { tokenId } });
+        return attributes[0];
     }
 
-    private static Hash160 getOwnerOfToken(ByteString tokenId) {
-        return new Hash160(ownerOfMap.get(tokenId));
+    private static StakeRecord newStakeRecord(Hash160 owner, int attributes) {
+        return new StakeRecord(owner, CandyAttributes.isVillain(attributes), CandyAttributes.sugar(attributes),
+                CandyAttributes.generation(attributes), 0, currentBlockIndex());
     }
 
     @Safe
@@ -234,9 +418,63 @@ public class CandyClashStaking {
         Storage.put(ctx, pausedKey, value ? 1 : 0);
     }
 
+    /**
+     * Returns the unclaimed rewards of all villager candies staked by the given
+     * account, before taxes.
+     */
+    @Safe
+    public static int availableVillagerClaimAmount(Hash160 owner) {
+        StakingState state = loadState();
+        updateEarnings(state);
+        return villagerAccountClaimAmount(state, getVillagerAccount(owner));
+    }
+
+    /**
+     * Picks the owner of a staked villain candy with a probability proportional to
+     * its sugar. Walks the Fenwick tree of staked villains, so it needs a
+     * logarithmic number of storage reads regardless of how many are staked. The
+     * tree only holds migrated villains, so its root is used as the total weight
+     * rather than totalSugarStaked.
+     *
+     * @param seed = Random value used to select the villain.
+     * @return the owner of the selected villain or null if no villain is staked.
+     */
+    @Safe
+    public static Hash160 randomStakedVillainOwner(int seed) {
+        int totalWeight = villainTree.get(new ByteString(VILLAIN_TREE_SIZE)).toIntOrZero();
+        if (totalWeight == 0) {
+            return null;
+        }
+        int target = seed % totalWeight;
+        if (target < 0) {
+            target = -target;
+        }
+        int position = 0;
+        for (int step = VILLAIN_TREE_SIZE / 2; step > 0; step = step / 2) {
+            int weight = villainTree.get(new ByteString(position + step)).toIntOrZero();
+            if (weight <= target) {
+                position = position + step;
+                target = target - weight;
+            }
+        }
+        StakeRecord stake = getStake(new ByteString(position + 1));
+        if (stake == null) {
+            return null;
+        }
+        return stake.owner;
+    }
+
+    @Safe
+    public static Iterator<ByteString> stakedTokensOf(Hash160 owner) {
+        return (Iterator<ByteString>) Storage.find(
+                ctx.asReadOnly(),
+                createStakedTokensOfPrefix(owner),
+                (byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
+    }
+
     @Safe
     public static int totalSugarStaked() {
-        return Storage.getIntOrZero(ctx, totalSugarStakedKey);
+        return loadState().totalSugarStaked;
     }
 
     @Safe
@@ -246,19 +484,17 @@ public class CandyClashStaking {
 
     @Safe
     public static int totalVillagerCandiesStaked() {
-        return Storage.getIntOrZero(ctx, totalVillagerCandiesStakedKey);
+        return loadState().totalVillagerCandiesStaked;
     }
 
     @Safe
     public static int totalVillainCandiesStaked() {
-        return Storage.getIntOrZero(ctx, totalVillainCandiesStakedKey);
+        return loadState().totalVillainCandiesStaked;
     }
 
     @Safe
     public static int maxCandiesToEarn() {
-        Hash160 candyContract = candyContractHash();
-        return (int) Contract.call(candyContract, "balanceOf", CallFlags.All,
-                new Object[] { Runtime.getExecutingScriptHash() });
+        return loadState().rewardBudget;
     }
 
     @Safe
@@ -268,105 +504,116 @@ public class CandyClashStaking {
 
     @Safe
     public static int totalCandiesEarned() {
-        return Storage.getIntOrZero(ctx, totalCandiesEarnedKey);
+        return loadState().totalCandiesEarned;
     }
 
     @Safe
-    public static Hash160 owner() {
-        return new Hash160(Storage.get(ctx, ownerKey));
+    public static int candyPerSugar() {
+        return loadState().candyPerSugar;
     }
 
+    /**
+     * Returns the collected taxes that were not yet folded into candyPerSugar
+     * because they do not add up to a whole candy per staked sugar.
+     */
     @Safe
-    public static int dailyCandyRate() {
-        return Storage.getInt(ctx, dailyCandyRateKey);
-    }
-
-    private static void onlyOwner() {
-        assert (Runtime.checkWitness(owner())) : "onlyOwner";
-    }
-
-    private static void isPaused() {
-        assert !Storage.getBoolean(ctx, pausedKey) : "paused";
-    }
-
-    private static void incrementTotalSugarStaked(int amount) {
-        Storage.put(ctx, totalSugarStakedKey, totalSugarStaked() + amount);
-    }
-
-    private static void decrementTotalSugarStaked(int amount) {
-        Storage.put(ctx, totalSugarStakedKey, totalSugarStaked() - amount);
+    public static int unaccountedRewards() {
+        return loadState().unaccountedRewards;
     }
 
-    private static void incrementTotalVillagerCandiesStaked(int amount) {
-        Storage.put(ctx, totalVillagerCandiesStakedKey, totalVillagerCandiesStaked() + amount);
-    }
-
-    private static void decrementTotalVillagerCandiesStaked(int amount) {
-        Storage.put(ctx, totalVillagerCandiesStakedKey, totalVillagerCandiesStaked() - amount);
-    }
-
-    private static void incrementTotalVillainCandiesStaked(int amount) {
-        Storage.put(ctx, totalVillainCandiesStakedKey, totalVillagerCandiesStaked() + amount);
+    @Safe
+    public static Hash160 owner() {
+        return new Hash160(Storage.get(ctx, ownerKey));
     }
 
-    private static void decrementTotalVillainCandiesStaked(int amount) {
-        Storage.put(ctx, totalVillainCandiesStakedKey, totalVillagerCandiesStaked() - amount);
+    @Safe
+    public static int dailyCandyRate() {
+        return Storage.getInt(ctx, dailyCandyRateKey);
     }
 
-    private static void incrementTotalCandiesEarned(int amount) {
-        Storage.put(ctx, totalCandiesEarnedKey, totalCandiesEarned() + amount);
+    @Safe
+    public static int schemaVersion() {
+        return Storage.getIntOrZero(ctx, schemaVersionKey);
     }
 
-    private static void updateVillainCandyStake(ByteString tokenId, int value) {
-        villainCandies.put(tokenId, value);
+    @Safe
+    public static boolean compactEvents() {
+        return Storage.getBoolean(ctx, compactEventsKey);
     }
 
-    private static void updateVillagerCandyStake(ByteString tokenId, int value) {
-        villagerCandies.put(tokenId, value);
+    private static void onlyOwner() {
+        assert (Runtime.checkWitness(owner())) : "onlyOwner";
     }
 
-    private static int getVillagerCandyStake(ByteString tokenId) {
-        return villagerCandies.getInt(tokenId);
+    private static void isPaused() {
+        assert !Storage.getBoolean(ctx, pausedKey) : "paused";
     }
 
-    private static int getVillainCandyStake(ByteString tokenId) {
-        return villainCandies.getInt(tokenId);
+    private static boolean isMigrating() {
+        return schemaVersion() < SCHEMA_VERSION;
     }
 
-    private static void deleteVillainCandyStake(ByteString tokenId) {
-        villainCandies.delete(tokenId);
+    /**
+     * Loads all staking accumulators with a single storage read. Callers change the
+     * returned state in memory and persist it once with {@link #saveState}.
+     */
+    private static StakingState loadState() {
+        ByteString result = Storage.get(ctx, stateKey);
+        return result != null ? (StakingState) StdLib.deserialize(result)
+                : new StakingState(0, 0, 0, 0, 0, 0, 0, 0, 0);
     }
 
-    private static void deleteOwnerOfToken(ByteString tokenId) {
-        ownerOfMap.delete(tokenId);
+    private static void saveState(StakingState state) {
+        Storage.put(ctx, stateKey, StdLib.serialize(state));
     }
 
-    private static void deleteVillagerCandyStake(ByteString tokenId) {
-        villagerCandies.delete(tokenId);
+    private static StakeRecord getStake(ByteString tokenId) {
+        ByteString result = stakes.get(tokenId);
+        return result != null ? (StakeRecord) StdLib.deserialize(result) : null;
     }
 
-    private static int lastClaimBlockIndex() {
-        return Storage.getIntOrZero(ctx, lastClaimBlockIndexKey);
+    private static void saveStake(ByteString tokenId, StakeRecord stake) {
+        stakes.put(tokenId, StdLib.serialize(stake));
     }
 
-    private static void updateLastClaimBlockIndex(int value) {
-        Storage.put(ctx, lastClaimBlockIndexKey, value);
+    private static void deleteStake(ByteString tokenId, StakeRecord stake) {
+        stakes.delete(tokenId);
+        new StorageMap(ctx, createStakedTokensOfPrefix(stake.owner)).delete(tokenId);
     }
 
-    private static int unaccountedRewards() {
-        return Storage.getIntOrZero(ctx, unaccountedRewardsKey);
+    private static VillagerAccount getVillagerAccount(Hash160 owner) {
+        ByteString result = villagerAccounts.get(owner.toByteArray());
+        return result != null ? (VillagerAccount) StdLib.deserialize(result) : new VillagerAccount(0, 0, 0);
     }
 
-    private static void incrementUnaccountedRewards(int amount) {
-        Storage.put(ctx, unaccountedRewardsKey, unaccountedRewards() + amount);
+    private static void saveVillagerAccount(Hash160 owner, VillagerAccount account) {
+        if (account.count == 0) {
+            villagerAccounts.delete(owner.toByteArray());
+        } else {
+            villagerAccounts.put(owner.toByteArray(), StdLib.serialize(account));
+        }
     }
 
-    private static void resetUnaccountedRewards() {
-        Storage.put(ctx, unaccountedRewardsKey, 0);
+    /**
+     * Adds the sugar delta of a villain candy to the Fenwick tree, indexed by its
+     * token id.
+     */
+    private static void updateVillainTree(int index, int delta) {
+        assert (index > 0 && index <= VILLAIN_TREE_SIZE) : "invalid token id";
+        while (index <= VILLAIN_TREE_SIZE) {
+            ByteString key = new ByteString(index);
+            int weight = villainTree.get(key).toIntOrZero() + delta;
+            if (weight == 0) {
+                villainTree.delete(key);
+            } else {
+                villainTree.put(key, weight);
+            }
+            index = index + (index & -index);
+        }
     }
 
-    private static int candyPerSugar() {
-        return Storage.getIntOrZero(ctx, candyPerSugarKey);
+    private static byte[] createStakedTokensOfPrefix(Hash160 owner) {
+        return Helper.concat(stakedTokensOfKey, owner.toByteArray());
     }
 
     private static Hash160 candyContractHash() {
@@ -377,15 +624,18 @@ public class CandyClashStaking {
         return new Hash160(Storage.get(ctx, nftContractkey));
     }
 
-    private static void incrementCandyPerSugar(int amount) {
-        Storage.put(ctx, candyPerSugarKey, candyPerSugar() + amount);
-
-    }
-
-    private static void transferCandy(Hash160 to, int amount) {
+    /**
+     * Debits the reward budget, persists the state and pays out the given amount.
+     * A failed transfer aborts the invocation, so the budget is never debited for
+     * candies that were not paid out.
+     */
+    private static void transferCandy(StakingState state, Hash160 to, int amount) {
+        state.rewardBudget = state.rewardBudget - amount;
+        saveState(state);
         Hash160 candyContract = candyContractHash();
-        Contract.call(candyContract, "transfer", CallFlags.All,
+        boolean transferred = (boolean) Contract.call(candyContract, "transfer", CallFlags.All,
                 new Object[] { Runtime.getExecutingScriptHash(), to, amount, null });
+        assert (transferred) : "transfer failed";
     }
 
     private static void transferNFT(Hash160 to, ByteString tokenId) {
@@ -398,13 +648,159 @@ public class CandyClashStaking {
         return LedgerContract.currentIndex();
     }
 
-    private static void updateEarnings() {
-        if (totalCandiesEarned() < maxCandiesToEarn()) {
-            int amount = (currentBlockIndex() - lastClaimBlockIndex()) * totalVillagerCandiesStaked() * dailyCandyRate()
-                    / BLOCKS_PER_DAY;
-            incrementTotalCandiesEarned(amount);
-            updateLastClaimBlockIndex(currentBlockIndex());
+    /**
+     * Advances the villager reward index up to the current block as long as there
+     * are candies left to earn.
+     */
+    private static void updateEarnings(StakingState state) {
+        if (state.totalCandiesEarned < state.rewardBudget) {
+            int increment = (currentBlockIndex() - state.lastClaimBlockIndex) * dailyCandyRate();
+            state.totalCandiesEarned = state.totalCandiesEarned
+                    + increment * state.totalVillagerCandiesStaked / BLOCKS_PER_DAY;
+            state.villagerRewardIndex = state.villagerRewardIndex + increment;
+            state.lastClaimBlockIndex = currentBlockIndex();
+        }
+    }
+
+    private static int candyBalance() {
+        Hash160 candyContract = candyContractHash();
+        return (int) Contract.call(candyContract, "balanceOf", CallFlags.All,
+                new Object[] { Runtime.getExecutingScriptHash() });
+    }
+
+    /* MIGRATION */
+
+    /**
+     * Converts the legacy counters into a StakingState. Runs once when the contract
+     * is updated from the legacy layout. The staked candies themselves are moved
+     * by {@link #migrate} or on their first claim, so the villain count and the
+     * villain tree start empty and grow as villains are migrated.
+     */
+    private static void migrateState() {
+        StakingState state = new StakingState(
+                Storage.getIntOrZero(ctx, legacyTotalSugarStakedKey),
+                Storage.getIntOrZero(ctx, legacyCandyPerSugarKey),
+                Storage.getIntOrZero(ctx, legacyTotalVillagerCandiesStakedKey),
+                0,
+                Storage.getIntOrZero(ctx, legacyTotalCandiesEarnedKey),
+                Storage.getIntOrZero(ctx, legacyLastClaimBlockIndexKey),
+                Storage.getIntOrZero(ctx, legacyUnaccountedRewardsKey),
+                candyBalance(),
+                0);
+        saveState(state);
+        Storage.delete(ctx, legacyTotalSugarStakedKey);
+        Storage.delete(ctx, legacyCandyPerSugarKey);
+        Storage.delete(ctx, legacyTotalVillagerCandiesStakedKey);
+        Storage.delete(ctx, legacyTotalCandiesEarnedKey);
+        Storage.delete(ctx, legacyLastClaimBlockIndexKey);
+        Storage.delete(ctx, legacyUnaccountedRewardsKey);
+        Storage.delete(ctx, legacyTotalVillainCandiesStakedKey);
+    }
+
+    /**
+     * Builds the stake record of a candy that is still stored in the legacy
+     * layout, without persisting anything. A legacy villager stores its stake
+     * block, which is turned into the reward index checkpoint it would have today.
+     *
+     * @return the stake record or null if the candy has no legacy stake.
+     */
+    private static StakeRecord legacyStake(StakingState state, ByteString tokenId) {
+        if (!isMigrating()) {
+            return null;
         }
+        ByteString owner = legacyOwnerOfMap.get(tokenId);
+        if (owner == null) {
+            return null;
+        }
+        StakeRecord stake = newStakeRecord(new Hash160(owner), getStakingAttributes(tokenId));
+        ByteString villainCheckpoint = legacyVillainStakes.get(tokenId);
+        stake.villain = villainCheckpoint != null;
+        if (stake.villain) {
+            stake.checkpoint = villainCheckpoint.toInt();
+        } else {
+            stake.blockIndex = legacyVillagerStakes.get(tokenId).toIntOrZero();
+            int elapsedBlocks = state.lastClaimBlockIndex - stake.blockIndex;
+            if (elapsedBlocks < 0) {
+                elapsedBlocks = 0;
+            }
+            stake.checkpoint = state.villagerRewardIndex - elapsedBlocks * dailyCandyRate();
+        }
+        return stake;
+    }
+
+    /**
+     * Writes a legacy stake in the current layout and removes its legacy entries.
+     * The sugar and the villager count are already part of the migrated state.
+     */
+    private static void migrateStake(StakingState state, VillagerAccount account, ByteString tokenId,
+            StakeRecord stake) {
+        saveStake(tokenId, stake);
+        new StorageMap(ctx, createStakedTokensOfPrefix(stake.owner)).put(tokenId, 1);
+        if (stake.villain) {
+            updateVillainTree(tokenId.toInt(), stake.sugar);
+            state.totalVillainCandiesStaked = state.totalVillainCandiesStaked + 1;
+            legacyVillainStakes.delete(tokenId);
+        } else {
+            account.count = account.count + 1;
+            account.checkpointSum = account.checkpointSum + stake.checkpoint;
+            legacyVillagerStakes.delete(tokenId);
+        }
+        legacyOwnerOfMap.delete(tokenId);
+    }
+
+    /**
+     * Moves up to {@code limit} legacy stakes to the current layout. Migrated
+     * entries are deleted from the legacy maps, so every call continues where the
+     * previous one stopped. Once no legacy stake is left the schema version is
+     * raised and the legacy read paths are switched off.
+     *
+     * @return the number of stakes migrated by this call.
+     */
+    public static int migrate(int limit) {
+        onlyOwner();
+        assert (limit > 0) : "invalid limit";
+        assert (isMigrating()) : "already migrated";
+        StakingState state = loadState();
+        updateEarnings(state);
+        Iterator<ByteString> iterator = (Iterator<ByteString>) legacyOwnerOfMap.find(
+                (byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
+        int count = 0;
+        while (count < limit && iterator.next()) {
+            ByteString tokenId = iterator.get();
+            StakeRecord stake = legacyStake(state, tokenId);
+            VillagerAccount account = getVillagerAccount(stake.owner);
+            migrateStake(state, account, tokenId, stake);
+            saveVillagerAccount(stake.owner, account);
+            count++;
+        }
+        if (count < limit) {
+            Storage.put(ctx, schemaVersionKey, SCHEMA_VERSION);
+        }
+        saveState(state);
+        return count;
+    }
+
+    /* OWNER ONLY METHODS */
+
+    /**
+     * Resets the internal reward budget to the actual $CANDY balance of this
+     * contract, e.g. after tokens were sent without going through onPayment.
+     */
+    public static int reconcileRewardBudget() {
+        onlyOwner();
+        StakingState state = loadState();
+        state.rewardBudget = candyBalance();
+        saveState(state);
+        return state.rewardBudget;
+    }
+
+    /**
+     * Switches between one claim event per token and a single claimBatch event per
+     * claim.
+     */
+    public static void setCompactEvents(boolean value) {
+        onlyOwner();
+        Storage.put(ctx, compactEventsKey, value ? 1 : 0);
     }
 
     /* CONTRACT MANAGEMENT */
@@ -424,6 +820,9 @@ public class CandyClashStaking {
             Storage.put(ctx, candiesContractKey, (Hash160) arr[3]);
             Storage.put(ctx, dailyCandyRateKey, (int) arr[4]);
             Storage.put(ctx, taxAmountKey, (int) arr[5]);
+            Storage.put(ctx, schemaVersionKey, SCHEMA_VERSION);
+        } else if (isMigrating() && Storage.get(ctx, stateKey) == null) {
+            migrateState();
         }
     }
 
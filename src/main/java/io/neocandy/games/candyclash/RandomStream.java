@@ -0,0 +1,32 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.Runtime;
+
+/**
+ * Deterministic stream of random numbers that is seeded once per invocation from
+ * {@link Runtime#getRandom()}. Every call to {@link #next} costs a few arithmetic
+ * instructions instead of a syscall, so a batch of rolls shares a single seed.
+ *
+ * The stream is a Lehmer generator (MINSTD) modulo the prime 2^31 - 1. NeoVM
+ * integers do not overflow, so the multiplication is exact.
+ */
+public class RandomStream {
+    int state; /* Current value of the generator, always in [1, 2^31 - 2]. */
+
+    public RandomStream(int state) {
+        this.state = state;
+    }
+
+    public static RandomStream seed() {
+        return new RandomStream(Runtime.getRandom() % 2147483646 + 1);
+    }
+
+    /**
+     * Returns the next random number of the stream in [0, bound).
+     */
+    public static int next(RandomStream stream, int bound) {
+        stream.state = stream.state * 48271 % 2147483647;
+        return stream.state % bound;
+    }
+
+}
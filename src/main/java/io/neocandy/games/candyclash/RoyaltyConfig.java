@@ -0,0 +1,15 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.Hash160;
+
+public class RoyaltyConfig {
+    Hash160 receiver; /* Account that receives the royalties. */
+    int amount; /* Royalties in basis points of the sale price. */
+    String json; /* Legacy getRoyalties JSON, computed when the royalties are configured. */
+
+    public RoyaltyConfig(Hash160 receiver, int amount, String json) {
+        this.receiver = receiver;
+        this.amount = amount;
+        this.json = json;
+    }
+}
@@ -0,0 +1,28 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.Hash160;
+
+public class SaleConfig {
+    boolean paused; /* true if minting is paused. */
+    Hash160 stakingContract; /* Staking contract, null until it is set by the owner. */
+    Hash160 candyContract; /* $CANDY token accepted for gen 1 mints. */
+    int gasPrice; /* Price of a genesis candy in GAS fractions. */
+    int candyPrice; /* Price of a gen 1 candy in $CANDY fractions. */
+    int maxTokensAmount; /* Total amount of candies that can be minted. */
+    int maxGenesisAmount; /* Amount of genesis candies that can be minted with GAS. */
+    int maxMintAmount; /* Maximum amount of candies minted in a single payment. */
+    boolean lazyReveal; /* true if the traits of new candies are revealed after the mint. */
+
+    public SaleConfig(boolean paused, Hash160 stakingContract, Hash160 candyContract, int gasPrice,
+            int candyPrice, int maxTokensAmount, int maxGenesisAmount, int maxMintAmount, boolean lazyReveal) {
+        this.paused = paused;
+        this.stakingContract = stakingContract;
+        this.candyContract = candyContract;
+        this.gasPrice = gasPrice;
+        this.candyPrice = candyPrice;
+        this.maxTokensAmount = maxTokensAmount;
+        this.maxGenesisAmount = maxGenesisAmount;
+        this.maxMintAmount = maxMintAmount;
+        this.lazyReveal = lazyReveal;
+    }
+}
@@ -0,0 +1,22 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.Hash160;
+
+public class StakeRecord {
+    Hash160 owner; /* Account that staked the candy and receives its rewards. */
+    boolean villain; /* true if the candy is a villain, false if it is a villager. */
+    int sugar; /* Sugar of the candy, captured once at stake time. */
+    int generation; /* 0 for genesis candies, 1 for candies minted with $CANDY. */
+    int checkpoint; /* Villager reward index or candyPerSugar at the last claim of the candy. */
+    int blockIndex; /* Block index of the stake or of the last claim of the candy. */
+
+    public StakeRecord(Hash160 owner, boolean villain, int sugar, int generation, int checkpoint,
+            int blockIndex) {
+        this.owner = owner;
+        this.villain = villain;
+        this.sugar = sugar;
+        this.generation = generation;
+        this.checkpoint = checkpoint;
+        this.blockIndex = blockIndex;
+    }
+}
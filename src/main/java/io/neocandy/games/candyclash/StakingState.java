@@ -0,0 +1,27 @@
+package io.neocandy.games.candyclash;
+
+public class StakingState {
+    int totalSugarStaked; /* Sum of the sugar of all staked villain candies. */
+    int candyPerSugar; /* Accumulated tax rewards per staked sugar. */
+    int totalVillagerCandiesStaked; /* Number of staked villager candies. */
+    int totalVillainCandiesStaked; /* Number of staked villain candies. */
+    int totalCandiesEarned; /* Total amount of $CANDY earned by villager candies. */
+    int lastClaimBlockIndex; /* Block index of the last earnings update. */
+    int unaccountedRewards; /* Taxes not yet distributed to the staked villain candies. */
+    int rewardBudget; /* $CANDY held by the contract that can still be paid out. */
+    int villagerRewardIndex; /* Accumulated reward per villager candy, scaled by BLOCKS_PER_DAY. */
+
+    public StakingState(int totalSugarStaked, int candyPerSugar, int totalVillagerCandiesStaked,
+            int totalVillainCandiesStaked, int totalCandiesEarned, int lastClaimBlockIndex, int unaccountedRewards,
+            int rewardBudget, int villagerRewardIndex) {
+        this.totalSugarStaked = totalSugarStaked;
+        this.candyPerSugar = candyPerSugar;
+        this.totalVillagerCandiesStaked = totalVillagerCandiesStaked;
+        this.totalVillainCandiesStaked = totalVillainCandiesStaked;
+        this.totalCandiesEarned = totalCandiesEarned;
+        this.lastClaimBlockIndex = lastClaimBlockIndex;
+        this.unaccountedRewards = unaccountedRewards;
+        this.rewardBudget = rewardBudget;
+        this.villagerRewardIndex = villagerRewardIndex;
+    }
+}
@@ -0,0 +1,13 @@
+package io.neocandy.games.candyclash;
+
+public class VillagerAccount {
+    int count; /* Number of villager candies staked by the account. */
+    int checkpointSum; /* Sum of the reward index checkpoints of all staked villager candies. */
+    int claimedIndex; /* Reward index of the last full account claim. */
+
+    public VillagerAccount(int count, int checkpointSum, int claimedIndex) {
+        this.count = count;
+        this.checkpointSum = checkpointSum;
+        this.claimedIndex = claimedIndex;
+    }
+}
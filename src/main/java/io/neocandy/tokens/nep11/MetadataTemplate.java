@@ -0,0 +1,13 @@
+package io.neocandy.tokens.nep11;
+
+public class MetadataTemplate {
+    String description; /* Description shared by all tokens of the template, or null. */
+    String image; /* Prefix of the image of every token of the template, or null. */
+    String tokenURI; /* Prefix of the tokenURI of every token of the template, or null. */
+
+    public MetadataTemplate(String description, String image, String tokenURI) {
+        this.description = description;
+        this.image = image;
+        this.tokenURI = tokenURI;
+    }
+}
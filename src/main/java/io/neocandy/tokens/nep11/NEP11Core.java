@@ -0,0 +1,161 @@
+package io.neocandy.tokens.nep11;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Contract;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Iterator;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageMap;
+import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.constants.FindOptions;
+import io.neow3j.devpack.contracts.ContractManagement;
+
+/**
+ * Ownership and balance bookkeeping of a non-divisible NEP-11 token, shared by
+ * the NFT contracts of this repository.
+ *
+ * The owner of a token is stored under prefix 4 followed by the token id, the
+ * balance of an account under prefix 20 followed by the account and the tokens
+ * of an account under prefix 24 followed by the account and the token id. The
+ * value of a tokensOf entry is chosen by the contract. Events are declared by the
+ * contracts, so firing Transfer and Mint is left to them.
+ */
+public class NEP11Core {
+
+    private static final byte OWNER_OF_PREFIX = 4;
+    private static final byte BALANCE_PREFIX = 20;
+    private static final byte TOKENS_OF_PREFIX = 24;
+
+    public static Hash160 ownerOf(ByteString tokenId) {
+        ByteString owner = ownerOfMap().get(tokenId);
+        if (owner == null) {
+            return null;
+        }
+        return new Hash160(owner);
+    }
+
+    public static int balanceOf(Hash160 owner) {
+        return balanceMap().get(owner.toByteArray()).toIntOrZero();
+    }
+
+    /**
+     * Adds {@code amount} to the balance of {@code owner} with a single read. A
+     * balance that drops to zero is removed from storage.
+     */
+    public static void addToBalance(Hash160 owner, int amount) {
+        StorageMap balances = balanceMap();
+        byte[] key = owner.toByteArray();
+        int balance = balances.get(key).toIntOrZero() + amount;
+        if (balance == 0) {
+            balances.delete(key);
+        } else {
+            balances.put(key, balance);
+        }
+    }
+
+    public static Iterator<ByteString> tokensOf(Hash160 owner) {
+        return (Iterator<ByteString>) Storage.find(
+                Storage.getReadOnlyContext(),
+                tokensOfPrefix(owner),
+                (byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
+    }
+
+    /**
+     * Returns the tokens of {@code owner} together with the values of their tokensOf
+     * entries.
+     */
+    public static Iterator<Iterator.Struct<ByteString, ByteString>> tokensOfWithValues(Hash160 owner) {
+        return (Iterator<Iterator.Struct<ByteString, ByteString>>) Storage.find(
+                Storage.getReadOnlyContext(),
+                tokensOfPrefix(owner),
+                FindOptions.RemovePrefix);
+    }
+
+    /**
+     * Returns the tokensOf entries of {@code owner}, for callers that write several
+     * entries of the same account.
+     */
+    public static StorageMap tokensOfMap(Hash160 owner) {
+        return new StorageMap(Storage.getStorageContext(), tokensOfPrefix(owner));
+    }
+
+    /**
+     * Returns the ids of all existing tokens.
+     */
+    public static Iterator<ByteString> tokens() {
+        return (Iterator<ByteString>) ownerOfMap().find((byte) (FindOptions.KeysOnly | FindOptions.RemovePrefix));
+    }
+
+    /**
+     * Records {@code owner} as owner of a token and adds it to the owner's tokens.
+     * Balances are left to the caller, so that a batch can update them once.
+     */
+    public static void assign(Hash160 owner, StorageMap ownerTokens, ByteString tokenId, int value) {
+        ownerOfMap().put(tokenId, owner.toByteArray());
+        ownerTokens.put(tokenId, value);
+    }
+
+    /**
+     * Moves a token to {@code to} after checking the witness of its owner and
+     * returns the previous owner. The receiver is not notified, see
+     * {@link #notifyReceiver}.
+     *
+     * @param value = Value of the receiver's tokensOf entry.
+     */
+    public static Hash160 transfer(Hash160 to, ByteString tokenId, int value) {
+        Hash160 owner = ownerOf(tokenId);
+        assert owner != null : "This token id does not exist";
+        assert Runtime.checkWitness(owner) : "No authorization";
+        move(owner, to, tokenId, value);
+        return owner;
+    }
+
+    /**
+     * Moves a token from {@code owner} to {@code to} without any checks, for
+     * callers that verified the owner and its witness already.
+     */
+    public static void move(Hash160 owner, Hash160 to, ByteString tokenId, int value) {
+        ownerOfMap().put(tokenId, to.toByteArray());
+        tokensOfMap(owner).delete(tokenId);
+        tokensOfMap(to).put(tokenId, value);
+        if (owner != to) {
+            addToBalance(owner, -1);
+            addToBalance(to, 1);
+        }
+    }
+
+    /**
+     * Removes a token of {@code owner} and decrements its balance.
+     */
+    public static void remove(Hash160 owner, ByteString tokenId) {
+        ownerOfMap().delete(tokenId);
+        tokensOfMap(owner).delete(tokenId);
+        addToBalance(owner, -1);
+    }
+
+    /**
+     * Calls onNEP11Payment on the receiver if it is a contract. Callers that move
+     * many tokens to the same contract can skip this and notify the contract once
+     * for the whole batch instead.
+     */
+    public static void notifyReceiver(Hash160 from, Hash160 to, ByteString tokenId, Object data) {
+        if (ContractManagement.getContract(to) != null) {
+            Contract.call(to, "onNEP11Payment", CallFlags.All, new Object[] { from, 1, tokenId, data });
+        }
+    }
+
+    private static StorageMap ownerOfMap() {
+        return new StorageMap(Storage.getStorageContext(), OWNER_OF_PREFIX);
+    }
+
+    private static StorageMap balanceMap() {
+        return new StorageMap(Storage.getStorageContext(), BALANCE_PREFIX);
+    }
+
+    private static byte[] tokensOfPrefix(Hash160 owner) {
+        return Helper.concat(Helper.toByteArray(TOKENS_OF_PREFIX), owner.toByteArray());
+    }
+
+}
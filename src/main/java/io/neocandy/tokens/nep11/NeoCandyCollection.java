@@ -1,7 +1,6 @@
 package io.neocandy.tokens.nep11;
 
 import io.neow3j.devpack.ByteString;
-import io.neow3j.devpack.Contract;
 import io.neow3j.devpack.Hash160;
 import io.neow3j.devpack.Helper;
 import io.neow3j.devpack.Iterator;
@@ -15,9 +14,9 @@ import io.neow3j.devpack.annotations.ManifestExtra;
 import io.neow3j.devpack.annotations.Permission;
 import io.neow3j.devpack.annotations.OnDeployment;
 import io.neow3j.devpack.annotations.Safe;
-import io.neow3j.devpack.constants.CallFlags;
 import io.neow3j.devpack.constants.FindOptions;
 import io.neow3j.devpack.contracts.ContractManagement;
+import io.neow3j.devpack.contracts.StdLib;
 import io.neow3j.devpack.events.Event3Args;
 import io.neow3j.devpack.events.Event4Args;
 
@@ -35,8 +34,7 @@ public class NeoCandyCollection {
     static final byte[] registryPrefix = Helper.toByteArray((byte) 3);
     static final StorageMap registryMap = new StorageMap(ctx, registryPrefix);
 
-    static final byte[] ownerOfKey = Helper.toByteArray((byte) 4);
-    static final StorageMap ownerOfMap = new StorageMap(ctx, ownerOfKey);
+    // owners, balances and tokensOf entries are kept by NEP11Core at prefix 4, 20 and 24
 
     static final StorageMap contractMap = new StorageMap(ctx, (byte) 5);
 
@@ -50,10 +48,10 @@ public class NeoCandyCollection {
     static final StorageMap propertiesImageMap = new StorageMap(ctx, (byte) 14);
     static final StorageMap propertiesTokenURIMap = new StorageMap(ctx, (byte) 15);
 
-    static final byte[] balanceKey = Helper.toByteArray((byte) 20);
-    static final StorageMap balanceMap = new StorageMap(ctx, balanceKey);
-
-    static final byte[] tokensOfKey = Helper.toByteArray((byte) 24);
+    // tokens minted with a template keep a single TemplatedMetadata entry instead of the maps above
+    static final String propTemplate = "template";
+    static final StorageMap templatesMap = new StorageMap(ctx, (byte) 16);
+    static final StorageMap templatedMetadataMap = new StorageMap(ctx, (byte) 17);
 
     @OnDeployment
     public static void deploy(Object data, boolean update) {
@@ -88,49 +86,24 @@ public class NeoCandyCollection {
 
     @Safe
     public static int balanceOf(Hash160 owner) {
-        return getBalanceOf(owner);
+        return NEP11Core.balanceOf(owner);
     }
 
     @Safe
     public static Iterator<ByteString> tokensOf(Hash160 owner) {
-        return (Iterator<ByteString>) Storage.find(
-                ctx.asReadOnly(),
-                createTokensOfPrefix(owner),
-                FindOptions.RemovePrefix);
+        return NEP11Core.tokensOf(owner);
     }
 
     public static boolean transfer(Hash160 to, ByteString tokenId, Object data) throws Exception {
-        Hash160 owner = ownerOf(tokenId);
-        assert owner != null : "This token id does not exist";
-        assert Runtime.checkWitness(owner) : "No authorization";
-
-        ownerOfMap.put(tokenId, to.toByteArray());
-        new StorageMap(ctx, createTokensOfPrefix(owner)).delete(tokenId);
-        new StorageMap(ctx, createTokensOfPrefix(to)).put(tokenId, 1);
-
-        decrementBalanceByOne(owner);
-        incrementBalanceByOne(to);
-
+        Hash160 owner = NEP11Core.transfer(to, tokenId, 1);
         onTransfer.fire(owner, to, 1, tokenId);
-
-        if (ContractManagement.getContract(to) != null) {
-            Contract.call(to, "onNEP11Payment", CallFlags.All,
-                    new Object[] { owner, 1, tokenId, data });
-        }
+        NEP11Core.notifyReceiver(owner, to, tokenId, data);
         return true;
     }
 
-    private static byte[] createTokensOfPrefix(Hash160 owner) {
-        return Helper.concat(tokensOfKey, owner.toByteArray());
-    }
-
     @Safe
     public static Hash160 ownerOf(ByteString tokenId) {
-        ByteString owner = ownerOfMap.get(tokenId);
-        if (owner == null) {
-            return null;
-        }
-        return new Hash160(owner);
+        return NEP11Core.ownerOf(tokenId);
     }
 
     @DisplayName("Mint")
@@ -140,33 +113,58 @@ public class NeoCandyCollection {
             throws Exception {
 
         assert Runtime.checkWitness(contractOwner()) : "No authorization";
-        assert registryMap.get(tokenId) == null : "This token id already exists";
 
-        assert properties.containsKey(propName) : "The properties must contain a value for the key `name`";
+        mintToken(owner, tokenId, properties);
 
-        String tokenName = properties.get(propName);
-        propertiesNameMap.put(tokenId, tokenName);
+        NEP11Core.addToBalance(owner, 1);
+        incrementTotalSupplyByOne();
+    }
 
-        if (properties.containsKey(propDescription)) {
-            String description = properties.get(propDescription);
-            propertiesDescriptionMap.put(tokenId, description);
-        }
-        if (properties.containsKey(propImage)) {
-            String image = properties.get(propImage);
-            propertiesImageMap.put(tokenId, image);
+    /**
+     * Mints several tokens in one call. The owner witness is checked once, the
+     * balance of every owner is updated once with the number of tokens it
+     * receives and the total supply is updated once. Mint and Transfer are still
+     * fired for every token.
+     */
+    public static void mintBatch(Hash160[] owners, ByteString[] tokenIds, Map<String, String>[] properties)
+            throws Exception {
+
+        assert Runtime.checkWitness(contractOwner()) : "No authorization";
+        assert owners.length == tokenIds.length && owners.length == properties.length
+                : "Owners, token ids and properties must have the same length";
+
+        Map<Hash160, Integer> minted = new Map<>();
+        for (int i = 0; i < tokenIds.length; i++) {
+            Hash160 owner = owners[i];
+            mintToken(owner, tokenIds[i], properties[i]);
+            if (minted.containsKey(owner)) {
+                minted.put(owner, minted.get(owner) + 1);
+            } else {
+                minted.put(owner, 1);
+            }
         }
-        if (properties.containsKey(propTokenURI)) {
-            String tokenURI = properties.get(propTokenURI);
-            propertiesTokenURIMap.put(tokenId, tokenURI);
+
+        Hash160[] receivers = minted.keys();
+        for (int i = 0; i < receivers.length; i++) {
+            NEP11Core.addToBalance(receivers[i], minted.get(receivers[i]));
         }
+        contractMap.put(totalSupplyKey, contractMap.getInt(totalSupplyKey) + tokenIds.length);
+    }
 
-        registryMap.put(tokenId, tokenId);
-        ownerOfMap.put(tokenId, owner.toByteArray());
-        new StorageMap(ctx, createTokensOfPrefix(owner)).put(tokenId, 1);
+    /**
+     * Registers a metadata template. Tokens minted with the property `template`
+     * set to {@code templateId} share the template's description and store only
+     * their name and the suffixes of their image and tokenURI, which are appended
+     * to the template's prefixes by {@link #properties}. A registered template
+     * cannot be changed.
+     */
+    public static void registerTemplate(ByteString templateId, Map<String, String> template) {
+        assert Runtime.checkWitness(contractOwner()) : "No authorization";
+        assert templatesMap.get(templateId) == null : "This template id already exists";
 
-        incrementBalanceByOne(owner);
-        incrementTotalSupplyByOne();
-        onMint.fire(owner, tokenId, properties);
+        MetadataTemplate metadataTemplate = new MetadataTemplate(optionalProperty(template, propDescription),
+                optionalProperty(template, propImage), optionalProperty(template, propTokenURI));
+        templatesMap.put(templateId, StdLib.serialize(metadataTemplate));
     }
 
     @Safe
@@ -177,6 +175,19 @@ public class NeoCandyCollection {
     @Safe
     public static Map<String, String> properties(ByteString tokenId) throws Exception {
         Map<String, String> p = new Map<>();
+        ByteString templated = templatedMetadataMap.get(tokenId);
+        if (templated != null) {
+            TemplatedMetadata metadata = (TemplatedMetadata) StdLib.deserialize(templated);
+            MetadataTemplate template = (MetadataTemplate) StdLib.deserialize(templatesMap.get(metadata.template));
+            p.put(propName, metadata.name);
+            if (template.description != null) {
+                p.put(propDescription, template.description);
+            }
+            putExpanded(p, propImage, template.image, metadata.image);
+            putExpanded(p, propTokenURI, template.tokenURI, metadata.tokenURI);
+            return p;
+        }
+
         ByteString tokenName = propertiesNameMap.get(tokenId);
         if (tokenName == null) {
             throw new Exception("This token id does not exist.");
@@ -198,19 +209,74 @@ public class NeoCandyCollection {
         return p;
     }
 
-    private static void incrementBalanceByOne(Hash160 owner) {
-        balanceMap.put(owner.toByteArray(), getBalanceOf(owner) + 1);
+    private static void putExpanded(Map<String, String> p, String key, String prefix, String suffix) {
+        if (prefix == null && suffix == null) {
+            return;
+        }
+        if (prefix == null) {
+            p.put(key, suffix);
+        } else if (suffix == null) {
+            p.put(key, prefix);
+        } else {
+            p.put(key, prefix + suffix);
+        }
     }
 
-    private static void decrementBalanceByOne(Hash160 owner) {
-        balanceMap.put(owner.toByteArray(), getBalanceOf(owner) - 1);
+    private static String optionalProperty(Map<String, String> properties, String key) {
+        if (properties.containsKey(key)) {
+            return properties.get(key);
+        }
+        return null;
     }
 
-    private static int getBalanceOf(Hash160 owner) {
-        if (balanceMap.get(owner.toByteArray()) == null) {
-            return 0;
+    /**
+     * Stores a new token with its properties and assigns it to {@code owner}.
+     * Tokens with the property `template` store a single TemplatedMetadata entry
+     * instead of one entry per property. The balance of the owner and the total
+     * supply are left to the caller.
+     */
+    private static void mintToken(Hash160 owner, ByteString tokenId, Map<String, String> properties) {
+        assert registryMap.get(tokenId) == null : "This token id already exists";
+
+        assert properties.containsKey(propName) : "The properties must contain a value for the key `name`";
+
+        String tokenName = properties.get(propName);
+        if (properties.containsKey(propTemplate)) {
+            ByteString templateId = new ByteString(properties.get(propTemplate));
+            assert templatesMap.get(templateId) != null : "This template id does not exist";
+            assert !properties.containsKey(propDescription) : "Templated tokens take the description of the template";
+
+            TemplatedMetadata metadata = new TemplatedMetadata(tokenName, templateId,
+                    optionalProperty(properties, propImage), optionalProperty(properties, propTokenURI));
+            templatedMetadataMap.put(tokenId, StdLib.serialize(metadata));
+            assignMintedToken(owner, tokenId, properties);
+            return;
+        }
+
+        propertiesNameMap.put(tokenId, tokenName);
+
+        if (properties.containsKey(propDescription)) {
+            String description = properties.get(propDescription);
+            propertiesDescriptionMap.put(tokenId, description);
         }
-        return balanceMap.get(owner.toByteArray()).toInt();
+        if (properties.containsKey(propImage)) {
+            String image = properties.get(propImage);
+            propertiesImageMap.put(tokenId, image);
+        }
+        if (properties.containsKey(propTokenURI)) {
+            String tokenURI = properties.get(propTokenURI);
+            propertiesTokenURIMap.put(tokenId, tokenURI);
+        }
+
+        assignMintedToken(owner, tokenId, properties);
+    }
+
+    private static void assignMintedToken(Hash160 owner, ByteString tokenId, Map<String, String> properties) {
+        registryMap.put(tokenId, tokenId);
+        NEP11Core.assign(owner, NEP11Core.tokensOfMap(owner), tokenId, 1);
+
+        onMint.fire(owner, tokenId, properties);
+        onTransfer.fire(null, owner, 1, tokenId);
     }
 
     private static void incrementTotalSupplyByOne() {
@@ -229,13 +295,15 @@ public class NeoCandyCollection {
         assert Runtime.checkWitness(owner) : "No authorization";
 
         registryMap.delete(tokenId);
-        propertiesNameMap.delete(tokenId);
-        propertiesDescriptionMap.delete(tokenId);
-        propertiesImageMap.delete(tokenId);
-        propertiesTokenURIMap.delete(tokenId);
-        ownerOfMap.delete(tokenId);
-        new StorageMap(ctx, createTokensOfPrefix(owner)).delete(tokenId);
-        decrementBalanceByOne(owner);
+        if (templatedMetadataMap.get(tokenId) != null) {
+            templatedMetadataMap.delete(tokenId);
+        } else {
+            propertiesNameMap.delete(tokenId);
+            propertiesDescriptionMap.delete(tokenId);
+            propertiesImageMap.delete(tokenId);
+            propertiesTokenURIMap.delete(tokenId);
+        }
+        NEP11Core.remove(owner, tokenId);
         decrementTotalSupplyByOne();
         return true;
     }
@@ -0,0 +1,17 @@
+package io.neocandy.tokens.nep11;
+
+import io.neow3j.devpack.ByteString;
+
+public class TemplatedMetadata {
+    String name; /* Name of the token. */
+    ByteString template; /* Id of the MetadataTemplate the token expands. */
+    String image; /* Suffix appended to the image prefix of the template, or null. */
+    String tokenURI; /* Suffix appended to the tokenURI prefix of the template, or null. */
+
+    public TemplatedMetadata(String name, ByteString template, String image, String tokenURI) {
+        this.name = name;
+        this.template = template;
+        this.image = image;
+        this.tokenURI = tokenURI;
+    }
+}
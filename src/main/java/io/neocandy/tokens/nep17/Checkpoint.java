@@ -0,0 +1,11 @@
+package io.neocandy.tokens.nep17;
+
+public class Checkpoint {
+    int blockIndex; /* Block in which the balance changed for the first time since the previous checkpoint. */
+    int balance; /* Balance before the first change in that block, i.e. at the end of the previous block. */
+
+    public Checkpoint(int blockIndex, int balance) {
+        this.blockIndex = blockIndex;
+        this.balance = balance;
+    }
+}
@@ -2,9 +2,12 @@ package io.neocandy.tokens.nep17;
 
 import static io.neow3j.devpack.StringLiteralHelper.stringToInt;
 
+import io.neow3j.devpack.Account;
 import io.neow3j.devpack.ByteString;
 import io.neow3j.devpack.Contract;
+import io.neow3j.devpack.ECPoint;
 import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
 import io.neow3j.devpack.Runtime;
 import io.neow3j.devpack.Storage;
 import io.neow3j.devpack.StorageContext;
@@ -17,7 +20,11 @@ import io.neow3j.devpack.annotations.Permission;
 import io.neow3j.devpack.annotations.Safe;
 import io.neow3j.devpack.annotations.SupportedStandards;
 import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.constants.NamedCurve;
 import io.neow3j.devpack.contracts.ContractManagement;
+import io.neow3j.devpack.contracts.CryptoLib;
+import io.neow3j.devpack.contracts.LedgerContract;
+import io.neow3j.devpack.contracts.StdLib;
 import io.neow3j.devpack.events.Event3Args;
 
 @ManifestExtra(key = "name", value = "Neo Candy")
@@ -38,9 +45,14 @@ public class NeoCandy {
     private static final byte[] PREFIX_ASSET = new byte[] { 0x01 };
     private static final byte[] TOTAL_SUPPLY_KEY = new byte[] { 0x02 };
     private static final byte[] OWNER_KEY = new byte[] { 0x03 };
+    private static final byte[] PREFIX_CHECKPOINT_COUNT = new byte[] { 0x04 };
+    private static final byte[] PREFIX_CHECKPOINT = new byte[] { 0x05 };
+    private static final byte[] PREFIX_NONCE = new byte[] { 0x06 };
 
     private static final StorageContext sc = Storage.getStorageContext();
     private static final StorageMap assetMap = new StorageMap(sc, PREFIX_ASSET);
+    private static final StorageMap checkpointCountMap = new StorageMap(sc, PREFIX_CHECKPOINT_COUNT);
+    private static final StorageMap nonceMap = new StorageMap(sc, PREFIX_NONCE);
 
     public static String symbol() {
         return "CANDY";
@@ -66,17 +78,58 @@ public class NeoCandy {
             throw new Exception(
                     "Invalid sender signature. The sender of the tokens needs to be " + "the signing account.");
         }
-        if (getBalance(from) < amount) {
+        return executeTransfer(from, to, amount, data);
+    }
+
+    /**
+     * Transfers tokens from one sender to many recipients in a single call. The witness of the sender is checked and
+     * its balance is debited only once, while every recipient still gets its own {@code Transfer} event and, if it is
+     * a contract, its own {@code onNEP17Payment} call.
+     *
+     * @param from    the sender.
+     * @param to      the recipients.
+     * @param amounts the amount for each recipient, in the same order as {@code to}.
+     * @param data    the data passed to every {@code onNEP17Payment} call.
+     * @return false if the sender balance does not cover the sum of all amounts, true otherwise.
+     */
+    public static boolean transferBatch(Hash160 from, Hash160[] to, int[] amounts, Object[] data) throws Exception {
+        if (!Hash160.isValid(from)) {
+            throw new Exception("From address is not a valid address.");
+        }
+        if (to.length != amounts.length) {
+            throw new Exception("Recipients and amounts must have the same length.");
+        }
+        if (!Runtime.checkWitness(from) && from != Runtime.getCallingScriptHash()) {
+            throw new Exception(
+                    "Invalid sender signature. The sender of the tokens needs to be " + "the signing account.");
+        }
+        int total = 0;
+        for (int i = 0; i < to.length; i++) {
+            if (!Hash160.isValid(to[i])) {
+                throw new Exception("To address is not a valid address.");
+            }
+            if (amounts[i] < 0) {
+                throw new Exception("The transfer amount was negative.");
+            }
+            if (from != to[i]) {
+                total += amounts[i];
+            }
+        }
+        if (getBalance(from) < total) {
             return false;
         }
-        if (from != to && amount != 0) {
-            deductFromBalance(from, amount);
-            addToBalance(to, amount);
+        if (total != 0) {
+            deductFromBalance(from, total);
         }
 
-        onTransfer.fire(from, to, amount);
-        if (ContractManagement.getContract(to) != null) {
-            Contract.call(to, "onNEP17Payment", CallFlags.All, new Object[] { from, amount, data });
+        for (int i = 0; i < to.length; i++) {
+            if (from != to[i] && amounts[i] != 0) {
+                addToBalance(to[i], amounts[i]);
+            }
+            onTransfer.fire(from, to[i], amounts[i]);
+            if (ContractManagement.getContract(to[i]) != null) {
+                Contract.call(to[i], "onNEP17Payment", CallFlags.All, new Object[] { from, amounts[i], data });
+            }
         }
         return true;
     }
@@ -88,6 +141,132 @@ public class NeoCandy {
         return getBalance(account);
     }
 
+    /**
+     * Transfers tokens on behalf of {@code from} without its witness, so that a relayer can submit the transfers of
+     * many holders in one transaction. Instead of a witness, the holder signs the binary serialization (see
+     * {@code StdLib.serialize}) of the array {@code [contract hash, network magic, from, to, amount, nonce,
+     * validUntilBlock]} with the secp256r1 key of its standard account.
+     *
+     * @param from            the sender, which must be the standard account of {@code publicKey}.
+     * @param to              the receiver.
+     * @param amount          the amount to transfer.
+     * @param nonce           the next nonce of the sender, see {@link #nonceOf}.
+     * @param validUntilBlock the last block in which the transfer may be executed.
+     * @param publicKey       the public key of the sender.
+     * @param signature       the signature of the sender over the message described above.
+     * @return false if the sender balance is too low. The nonce is used up either way.
+     */
+    public static boolean transferWithSignature(Hash160 from, Hash160 to, int amount, int nonce, int validUntilBlock,
+            ECPoint publicKey, ByteString signature) throws Exception {
+        if (!Hash160.isValid(from) || !Hash160.isValid(to)) {
+            throw new Exception("From or To address is not a valid address.");
+        }
+        if (amount < 0) {
+            throw new Exception("The transfer amount was negative.");
+        }
+        if (LedgerContract.currentIndex() >= validUntilBlock) {
+            throw new Exception("The signed transfer has expired.");
+        }
+        if (nonce != nonceOf(from)) {
+            throw new Exception("Invalid nonce.");
+        }
+        if (Account.createStandardAccount(publicKey) != from) {
+            throw new Exception("The public key does not belong to the sender.");
+        }
+        ByteString message = StdLib.serialize(new Object[] { Runtime.getExecutingScriptHash(), Runtime.getNetwork(),
+                from, to, amount, nonce, validUntilBlock });
+        if (!CryptoLib.verifyWithECDsa(message, publicKey, signature, NamedCurve.Secp256r1)) {
+            throw new Exception("Invalid sender signature.");
+        }
+        // the nonce is used up before the receiver is called, so it cannot replay the transfer
+        nonceMap.put(from.toByteArray(), nonce + 1);
+        return executeTransfer(from, to, amount, null);
+    }
+
+    /**
+     * Returns the nonce the next signed transfer of the given account has to use.
+     *
+     * @param account the account.
+     * @return the next nonce.
+     */
+    @Safe
+    public static int nonceOf(Hash160 account) {
+        return nonceMap.get(account.toByteArray()).toIntOrZero();
+    }
+
+    /**
+     * Starts keeping a balance history for the given account. From the current block on, the first balance change of
+     * the account in every block stores a checkpoint, which makes its balance queryable with {@link #balanceOfAt}.
+     *
+     * @param account the account, which needs to sign.
+     */
+    public static void enableCheckpoints(Hash160 account) throws Exception {
+        if (!Hash160.isValid(account)) {
+            throw new Exception("Argument is not a valid address.");
+        }
+        if (!Runtime.checkWitness(account)) {
+            throw new Exception("The account needs to be the signing account.");
+        }
+        if (checkpointCount(account) != 0) {
+            throw new Exception("Checkpoints are already enabled for this account.");
+        }
+        saveCheckpoint(account, 0, getBalance(account));
+    }
+
+    /**
+     * Returns the balance the given account had at the end of the given block, looked up with a binary search over
+     * its checkpoints.
+     *
+     * @param account    the account, which must have enabled checkpoints at or before {@code blockIndex}.
+     * @param blockIndex a block that is already persisted.
+     * @return the balance at the end of the block.
+     */
+    @Safe
+    public static int balanceOfAt(Hash160 account, int blockIndex) throws Exception {
+        if (!Hash160.isValid(account)) {
+            throw new Exception("Argument is not a valid address.");
+        }
+        throwIfBlockIsNotPersisted(blockIndex);
+        int count = checkpointCount(account);
+        if (count == 0) {
+            throw new Exception("Checkpoints are not enabled for this account.");
+        }
+        StorageMap checkpoints = checkpointMap(account);
+        int low = 0;
+        int high = count;
+        Checkpoint found = null;
+        while (low < high) {
+            int mid = (low + high) / 2;
+            Checkpoint checkpoint = getCheckpoint(checkpoints, mid);
+            if (checkpoint.blockIndex > blockIndex) {
+                found = checkpoint;
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (found == null) {
+            return getBalance(account);
+        }
+        if (low == 0) {
+            throw new Exception("Checkpoints were not enabled for this account at the given block.");
+        }
+        return found.balance;
+    }
+
+    /**
+     * Returns the total supply at the end of the given block. The whole supply is created on deployment and there is
+     * no mint or burn, so this is the current total supply for every persisted block.
+     *
+     * @param blockIndex a block that is already persisted.
+     * @return the total supply at the end of the block.
+     */
+    @Safe
+    public static int totalSupplyAt(int blockIndex) throws Exception {
+        throwIfBlockIsNotPersisted(blockIndex);
+        return totalSupply();
+    }
+
     @OnDeployment
     public static void deploy(Object data, boolean update) throws Exception {
         if (!update) {
@@ -132,12 +311,37 @@ public class NeoCandy {
         }
     }
 
+    private static boolean executeTransfer(Hash160 from, Hash160 to, int amount, Object[] data) {
+        if (getBalance(from) < amount) {
+            return false;
+        }
+        if (from != to && amount != 0) {
+            deductFromBalance(from, amount);
+            addToBalance(to, amount);
+        }
+
+        onTransfer.fire(from, to, amount);
+        if (ContractManagement.getContract(to) != null) {
+            Contract.call(to, "onNEP17Payment", CallFlags.All, new Object[] { from, amount, data });
+        }
+        return true;
+    }
+
+    private static void throwIfBlockIsNotPersisted(int blockIndex) throws Exception {
+        if (blockIndex < 0 || blockIndex > LedgerContract.currentIndex()) {
+            throw new Exception("The block is not yet persisted.");
+        }
+    }
+
     private static void addToBalance(Hash160 key, int value) {
-        assetMap.put(key.toByteArray(), getBalance(key) + value);
+        int oldValue = getBalance(key);
+        checkpoint(key, oldValue);
+        assetMap.put(key.toByteArray(), oldValue + value);
     }
 
     private static void deductFromBalance(Hash160 key, int value) {
         int oldValue = getBalance(key);
+        checkpoint(key, oldValue);
         if (oldValue == value) {
             assetMap.delete(key.toByteArray());
         } else {
@@ -149,4 +353,38 @@ public class NeoCandy {
         return assetMap.get(key.toByteArray()).toIntOrZero();
     }
 
+    /**
+     * Stores the balance an account had before its first change in the current block, if the account keeps a
+     * balance history. Later changes in the same block leave the checkpoint untouched.
+     */
+    private static void checkpoint(Hash160 account, int balance) {
+        int count = checkpointCount(account);
+        if (count == 0) {
+            return;
+        }
+        Checkpoint last = getCheckpoint(checkpointMap(account), count - 1);
+        if (last.blockIndex == LedgerContract.currentIndex() + 1) {
+            return;
+        }
+        saveCheckpoint(account, count, balance);
+    }
+
+    private static void saveCheckpoint(Hash160 account, int index, int balance) {
+        Checkpoint checkpoint = new Checkpoint(LedgerContract.currentIndex() + 1, balance);
+        checkpointMap(account).put(index, StdLib.serialize(checkpoint));
+        checkpointCountMap.put(account.toByteArray(), index + 1);
+    }
+
+    private static Checkpoint getCheckpoint(StorageMap checkpoints, int index) {
+        return (Checkpoint) StdLib.deserialize(checkpoints.get(index));
+    }
+
+    private static int checkpointCount(Hash160 account) {
+        return checkpointCountMap.get(account.toByteArray()).toIntOrZero();
+    }
+
+    private static StorageMap checkpointMap(Hash160 account) {
+        return new StorageMap(sc, Helper.concat(PREFIX_CHECKPOINT, account.toByteArray()));
+    }
+
 }
\ No newline at end of file
@@ -93,6 +93,11 @@ public abstract class AbstractCandyClashTest {
 
     @DeployConfig(CandyClashNFT.class)
     public static DeployConfiguration configureCandyClashNFT(DeployContext ctx) throws Exception {
+        return candyClashNFTConfig(ctx, GENESIS_AMOUNT);
+    }
+
+    protected static DeployConfiguration candyClashNFTConfig(DeployContext ctx, int genesisAmount)
+            throws Exception {
         DeployConfiguration config = new DeployConfiguration();
         ContractParameter owner = hash160(ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getScriptHash());
         ContractParameter gasPrice = integer(GAS_PRICE_PER_NFT);
@@ -100,7 +105,7 @@ public abstract class AbstractCandyClashTest {
         ContractParameter candy = hash160(ctx.getDeployedContract(NeoCandy.class).getScriptHash());
         ContractParameter imageBase = string("ipfs://Qmeqst3PBH9CQUxmZrcoT45HeGFVd89aUYrHN6vwFuhTDJ");
         ContractParameter maxTokens = integer(10000);
-        ContractParameter maxGenesis = integer(GENESIS_AMOUNT);
+        ContractParameter maxGenesis = integer(genesisAmount);
         ContractParameter isPaused = bool(false);
         ContractParameter royaltiesReceiverAddress = string(
                 ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getAddress());
@@ -0,0 +1,395 @@
+package io.neocandy.games.candyclash;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.neocandy.tokens.nep17.NeoCandy;
+import io.neow3j.compiler.CompilationUnit;
+import io.neow3j.compiler.Compiler;
+import io.neow3j.contract.FungibleToken;
+import io.neow3j.contract.SmartContract;
+import io.neow3j.protocol.Neow3j;
+import io.neow3j.protocol.ObjectMapperFactory;
+import io.neow3j.protocol.core.response.NeoInvokeFunction;
+import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.types.StackItemType;
+import io.neow3j.test.ContractTest;
+import io.neow3j.test.ContractTestExtension;
+import io.neow3j.test.DeployConfig;
+import io.neow3j.test.DeployConfiguration;
+import io.neow3j.test.DeployContext;
+import io.neow3j.types.ContractParameter;
+import io.neow3j.types.Hash160;
+import io.neow3j.utils.Numeric;
+import io.neow3j.wallet.Account;
+
+/**
+ * Deploys both CandyClash contracts in their legacy storage layout, fills them
+ * with candies and stakes and updates them to the current contracts. The tests
+ * run in order on the same chain, from the update to the end of the migration.
+ */
+@ContractTest(blockTime = 1, contracts = { NeoCandy.class,
+                LegacyCandyClashNFT.class,
+                LegacyCandyClashStaking.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CandyClashMigrationTest {
+
+        private static final Logger log = LoggerFactory.getLogger(CandyClashMigrationTest.class);
+
+        @RegisterExtension
+        static ContractTestExtension ext = new ContractTestExtension();
+
+        private static final int GAS_PRICE_PER_NFT = 10_00000000;
+        private static final int CANDY_PRICE_PER_NFT = 1_000000000;
+        private static final int GENESIS_AMOUNT = 6;
+        private static final int MIN_STAKE_BLOCK_COUNT = 5;
+        private static final long DAILY_CANDY_RATE = 1000_000000000L;
+        private static final int TAX_IN_PERCENT = 20;
+        private static final String IMAGE_BASE_URI = "ipfs://Qmeqst3PBH9CQUxmZrcoT45HeGFVd89aUYrHN6vwFuhTDJ";
+
+        // genesis candies of the legacy deployment, see setup
+        private static final int ALICE_VILLAGER = 1;
+        private static final int ALICE_STAKED_VILLAGER = 2;
+        private static final int ALICE_STAKED_VILLAIN = 3;
+        private static final int BOB_STAKED_VILLAGER = 4;
+        private static final int BOB_STAKED_VILLAIN = 5;
+        private static final int ALICE_STAKED_VILLAIN_SUGAR = 2;
+        private static final int BOB_STAKED_VILLAIN_SUGAR = 3;
+        // taxes paid before the update, spread over the staked sugar
+        private static final int LEGACY_TAX = 1000;
+        private static final int LEGACY_CANDY_PER_SUGAR = LEGACY_TAX
+                        / (ALICE_STAKED_VILLAIN_SUGAR + BOB_STAKED_VILLAIN_SUGAR);
+
+        private static Neow3j neow3j;
+        private static Account alice;
+        private static Account bob;
+        private static FungibleToken candyToken;
+        private static SmartContract candyClashNft;
+        private static SmartContract candyClashStaking;
+
+        @DeployConfig(NeoCandy.class)
+        public static DeployConfiguration configureNeoCandy() throws Exception {
+                DeployConfiguration config = new DeployConfiguration();
+                config.setDeployParam(ContractParameter.hash160(owner()));
+                return config;
+        }
+
+        @DeployConfig(LegacyCandyClashNFT.class)
+        public static DeployConfiguration configureLegacyCandyClashNFT(DeployContext ctx) throws Exception {
+                DeployConfiguration config = new DeployConfiguration();
+                config.setDeployParam(ContractParameter.array(
+                                ContractParameter.hash160(owner()),
+                                ContractParameter.integer(GAS_PRICE_PER_NFT),
+                                ContractParameter.integer(CANDY_PRICE_PER_NFT),
+                                ContractParameter.hash160(ctx.getDeployedContract(NeoCandy.class).getScriptHash()),
+                                ContractParameter.string(IMAGE_BASE_URI),
+                                ContractParameter.integer(10000),
+                                ContractParameter.integer(GENESIS_AMOUNT),
+                                ContractParameter.bool(false),
+                                ContractParameter.string(owner().toAddress()),
+                                ContractParameter.integer(1000),
+                                ContractParameter.integer(10)));
+                return config;
+        }
+
+        @DeployConfig(LegacyCandyClashStaking.class)
+        public static DeployConfiguration configureLegacyCandyClashStaking(DeployContext ctx) throws Exception {
+                DeployConfiguration config = new DeployConfiguration();
+                config.setDeployParam(ContractParameter.array(
+                                ContractParameter.hash160(owner()),
+                                ContractParameter.hash160(
+                                                ctx.getDeployedContract(LegacyCandyClashNFT.class).getScriptHash()),
+                                ContractParameter.integer(MIN_STAKE_BLOCK_COUNT),
+                                ContractParameter.hash160(ctx.getDeployedContract(NeoCandy.class).getScriptHash()),
+                                ContractParameter.integer(BigInteger.valueOf(DAILY_CANDY_RATE)),
+                                ContractParameter.integer(TAX_IN_PERCENT)));
+                return config;
+        }
+
+        private static Hash160 owner() {
+                return ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getScriptHash();
+        }
+
+        @BeforeAll
+        public static void setup() throws Throwable {
+                neow3j = ext.getNeow3j();
+                alice = ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2");
+                bob = ext.getAccount("NhsVB4etFffHjpLoj2ngVkkfNbtxiSSmbk");
+                candyToken = new FungibleToken(ext.getDeployedContract(NeoCandy.class).getScriptHash(), neow3j);
+                candyClashNft = ext.getDeployedContract(LegacyCandyClashNFT.class);
+                candyClashStaking = ext.getDeployedContract(LegacyCandyClashStaking.class);
+
+                TestHelper.invokeWrite(candyClashNft, TestHelper.CONNECT_STAKING_CONTRACT,
+                                Arrays.asList(ContractParameter.hash160(candyClashStaking.getScriptHash())), alice,
+                                neow3j);
+                TestHelper.transfer17(candyToken, alice, candyClashStaking.getScriptHash(),
+                                BigInteger.valueOf(100000_000000000L), null, neow3j);
+
+                // sells out the genesis sale, the staked candies are held by the staking contract
+                mintLegacy(alice.getScriptHash(), false, 1);
+                mintLegacy(candyClashStaking.getScriptHash(), false, 1);
+                mintLegacy(candyClashStaking.getScriptHash(), true, ALICE_STAKED_VILLAIN_SUGAR);
+                mintLegacy(candyClashStaking.getScriptHash(), false, 1);
+                mintLegacy(candyClashStaking.getScriptHash(), true, BOB_STAKED_VILLAIN_SUGAR);
+                mintLegacy(bob.getScriptHash(), true, 1);
+                stakeLegacy(alice, ALICE_STAKED_VILLAGER, false, 1);
+                stakeLegacy(alice, ALICE_STAKED_VILLAIN, true, ALICE_STAKED_VILLAIN_SUGAR);
+                stakeLegacy(bob, BOB_STAKED_VILLAGER, false, 1);
+                stakeLegacy(bob, BOB_STAKED_VILLAIN, true, BOB_STAKED_VILLAIN_SUGAR);
+                TestHelper.invokeWrite(candyClashStaking, "payTax",
+                                Arrays.asList(ContractParameter.integer(LEGACY_TAX)), alice, neow3j);
+                ext.fastForward(MIN_STAKE_BLOCK_COUNT);
+        }
+
+        @Test
+        @Order(1)
+        void updateNftTest() throws Throwable {
+                log.info("====================== updateNftTest() ======================");
+                update(candyClashNft, CandyClashNFT.class);
+                assertEquals(0, intResult(candyClashNft, TestHelper.SCHEMA_VERSION));
+
+                // the configuration keys are migrated on update
+                assertEquals(GAS_PRICE_PER_NFT, intResult(candyClashNft, TestHelper.GAS_PRICE));
+                assertEquals(CANDY_PRICE_PER_NFT, intResult(candyClashNft, TestHelper.CANDY_PRICE));
+                assertEquals(GENESIS_AMOUNT, intResult(candyClashNft, TestHelper.MAX_GENESIS_AMOUNT));
+                assertEquals(10000, intResult(candyClashNft, TestHelper.MAX_TOKENS_AMOUNT));
+                assertEquals(candyClashStaking.getScriptHash().toAddress(), candyClashNft
+                                .callInvokeFunction(TestHelper.STAKING_CONTRACT)
+                                .getInvocationResult().getStack().get(0).getAddress());
+                assertNull(storage(candyClashNft, 4));
+                assertNull(storage(candyClashNft, 34));
+
+                // the candies are read from the legacy maps until they are migrated
+                assertEquals(Arrays.asList(CandyAttributes.pack(false, 0, 1),
+                                CandyAttributes.pack(true, 0, ALICE_STAKED_VILLAIN_SUGAR)),
+                                stakingAttributes(ALICE_VILLAGER, ALICE_STAKED_VILLAIN));
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.JSON_PROPERTIES,
+                                Arrays.asList(tokenId(ALICE_STAKED_VILLAIN)));
+                assertTrue(result.getInvocationResult().getStack().get(0).getString()
+                                .contains("CandyClash Candy #" + ALICE_STAKED_VILLAIN));
+                assertEquals(alice.getAddress(), candyClashNft.callInvokeFunction(TestHelper.OWNER_OF,
+                                Arrays.asList(tokenId(ALICE_VILLAGER)))
+                                .getInvocationResult().getStack().get(0).getAddress());
+        }
+
+        @Test
+        @Order(2)
+        void updateStakingTest() throws Throwable {
+                log.info("====================== updateStakingTest() ======================");
+                update(candyClashStaking, CandyClashStaking.class);
+                assertEquals(0, intResult(candyClashStaking, TestHelper.SCHEMA_VERSION));
+
+                // the counters are migrated on update, the villains join the tree as they
+                // are migrated
+                assertEquals(ALICE_STAKED_VILLAIN_SUGAR + BOB_STAKED_VILLAIN_SUGAR,
+                                intResult(candyClashStaking, TestHelper.TOTAL_SUGAR_STAKED));
+                assertEquals(2, intResult(candyClashStaking, TestHelper.TOTAL_VILLAGER_CANDIES_STAKED));
+                assertEquals(0, intResult(candyClashStaking, TestHelper.TOTAL_VILLAIN_CANDIES_STAKED));
+                assertEquals(candyToken.getBalanceOf(candyClashStaking.getScriptHash()),
+                                integerResult(candyClashStaking, TestHelper.MAX_CANDIES_TO_EARN));
+                assertNull(storage(candyClashStaking, 3));
+
+                // legacy stakes can be read before they are migrated
+                assertEquals(ALICE_STAKED_VILLAIN_SUGAR * LEGACY_CANDY_PER_SUGAR,
+                                availableClaimAmount(ALICE_STAKED_VILLAIN));
+                assertTrue(availableClaimAmount(ALICE_STAKED_VILLAGER) > 0);
+
+                // the tree is empty while the staked sugar is not
+                for (int seed : new int[] { 0, 1, 4, 2147483646 }) {
+                        assertNull(randomStakedVillainOwner(seed));
+                }
+
+                Exception ex = assertThrows(Exception.class, () -> TestHelper.invokeWrite(candyClashStaking,
+                                TestHelper.CLAIM_ALL, Arrays.asList(ContractParameter.hash160(alice),
+                                                ContractParameter.integer(0), ContractParameter.integer(10)),
+                                alice, neow3j));
+                assertTrue(ex.getMessage().contains("migration pending"));
+        }
+
+        @Test
+        @Order(3)
+        void mintDuringMigrationTest() throws Throwable {
+                log.info("====================== mintDuringMigrationTest() ======================");
+                // gen 1 mints look up a villain to steal for while no villain is migrated
+                TestHelper.mintNFT(candyToken, alice, BigInteger.valueOf(10L * CANDY_PRICE_PER_NFT), candyClashNft,
+                                neow3j);
+                assertEquals(GENESIS_AMOUNT + 10, intResult(candyClashNft, TestHelper.TOTAL_SUPPLY));
+        }
+
+        @Test
+        @Order(4)
+        void claimOnFirstTouchTest() throws Throwable {
+                log.info("====================== claimOnFirstTouchTest() ======================");
+                BigInteger balance = candyToken.getBalanceOf(alice);
+                List<StackItem> result = TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM,
+                                Arrays.asList(ContractParameter.array(tokenId(ALICE_STAKED_VILLAIN)),
+                                                ContractParameter.bool(false), ContractParameter.hash160(alice)),
+                                alice, neow3j);
+                int claimed = ALICE_STAKED_VILLAIN_SUGAR * LEGACY_CANDY_PER_SUGAR;
+                assertEquals(claimed, result.get(0).getInteger().intValue());
+                assertEquals(balance.add(BigInteger.valueOf(claimed)), candyToken.getBalanceOf(alice));
+
+                // the claim moved the villain to the current layout
+                assertNull(storage(candyClashStaking, 14, ALICE_STAKED_VILLAIN));
+                assertNull(storage(candyClashStaking, 16, ALICE_STAKED_VILLAIN));
+                assertEquals(1, intResult(candyClashStaking, TestHelper.TOTAL_VILLAIN_CANDIES_STAKED));
+                assertEquals(alice.getAddress(), randomStakedVillainOwner(0));
+                assertEquals(0, availableClaimAmount(ALICE_STAKED_VILLAIN));
+                assertEquals(0, intResult(candyClashStaking, TestHelper.SCHEMA_VERSION));
+        }
+
+        @Test
+        @Order(5)
+        void resumableStakingMigrationTest() throws Throwable {
+                log.info("====================== resumableStakingMigrationTest() ======================");
+                // alice's villager and both candies of bob are left
+                int migrated = 0;
+                while (intResult(candyClashStaking, TestHelper.SCHEMA_VERSION) == 0) {
+                        int count = TestHelper.invokeWrite(candyClashStaking, TestHelper.MIGRATE,
+                                        Arrays.asList(ContractParameter.integer(1)), alice, neow3j)
+                                        .get(0).getInteger().intValue();
+                        assertTrue(count <= 1);
+                        migrated += count;
+                        assertTrue(migrated <= 3);
+                }
+                assertEquals(3, migrated);
+                for (int id : new int[] { ALICE_STAKED_VILLAGER, BOB_STAKED_VILLAGER, BOB_STAKED_VILLAIN }) {
+                        assertNull(storage(candyClashStaking, 16, id));
+                }
+                assertNull(storage(candyClashStaking, 15, ALICE_STAKED_VILLAGER));
+                assertNull(storage(candyClashStaking, 14, BOB_STAKED_VILLAIN));
+
+                // both villains are weighted by their sugar, in token id order
+                assertEquals(2, intResult(candyClashStaking, TestHelper.TOTAL_VILLAIN_CANDIES_STAKED));
+                assertEquals(alice.getAddress(), randomStakedVillainOwner(ALICE_STAKED_VILLAIN_SUGAR - 1));
+                assertEquals(bob.getAddress(), randomStakedVillainOwner(ALICE_STAKED_VILLAIN_SUGAR));
+
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM_ALL, Arrays.asList(
+                                ContractParameter.hash160(bob), ContractParameter.integer(0),
+                                ContractParameter.integer(10)), bob, neow3j);
+                Exception ex = assertThrows(Exception.class, () -> TestHelper.invokeWrite(candyClashStaking,
+                                TestHelper.MIGRATE, Arrays.asList(ContractParameter.integer(1)), alice, neow3j));
+                assertTrue(ex.getMessage().contains("already migrated"));
+        }
+
+        @Test
+        @Order(6)
+        void resumableNftMigrationTest() throws Throwable {
+                log.info("====================== resumableNftMigrationTest() ======================");
+                int totalSupply = intResult(candyClashNft, TestHelper.TOTAL_SUPPLY);
+                int cursor = 0;
+                while (cursor < totalSupply) {
+                        assertEquals(0, intResult(candyClashNft, TestHelper.SCHEMA_VERSION));
+                        int last = TestHelper.invokeWrite(candyClashNft, TestHelper.MIGRATE,
+                                        Arrays.asList(ContractParameter.integer(4)), alice, neow3j)
+                                        .get(0).getInteger().intValue();
+                        assertEquals(Math.min(cursor + 4, totalSupply), last);
+                        cursor = last;
+                }
+                assertEquals(1, intResult(candyClashNft, TestHelper.SCHEMA_VERSION));
+
+                for (int id = 1; id <= GENESIS_AMOUNT; id++) {
+                        for (int prefix : new int[] { 3, 12, 13, 14, 15, 16, 17 }) {
+                                assertNull(storage(candyClashNft, prefix, id));
+                        }
+                }
+                assertEquals(Arrays.asList(CandyAttributes.pack(false, 0, 1),
+                                CandyAttributes.pack(true, 0, ALICE_STAKED_VILLAIN_SUGAR)),
+                                stakingAttributes(ALICE_VILLAGER, ALICE_STAKED_VILLAIN));
+        }
+
+        private static void mintLegacy(Hash160 owner, boolean villain, int sugar) throws Throwable {
+                TestHelper.invokeWrite(candyClashNft, "mintLegacy", Arrays.asList(ContractParameter.hash160(owner),
+                                ContractParameter.bool(villain), ContractParameter.integer(sugar)), alice, neow3j);
+        }
+
+        private static void stakeLegacy(Account owner, int id, boolean villain, int sugar) throws Throwable {
+                TestHelper.invokeWrite(candyClashStaking, "stakeLegacy", Arrays.asList(
+                                ContractParameter.hash160(owner), tokenId(id), ContractParameter.bool(villain),
+                                ContractParameter.integer(sugar)), alice, neow3j);
+        }
+
+        /**
+         * Updates a legacy contract to the compiled current contract.
+         */
+        private static void update(SmartContract contract, Class<?> contractClass) throws Throwable {
+                CompilationUnit unit = new Compiler().compile(contractClass.getCanonicalName());
+                String manifest = ObjectMapperFactory.getObjectMapper().writeValueAsString(unit.getManifest());
+                TestHelper.invokeWrite(contract, "update", Arrays.asList(
+                                ContractParameter.byteArray(unit.getNefFile().toArray()),
+                                ContractParameter.string(manifest)), alice, neow3j);
+        }
+
+        private static int intResult(SmartContract contract, String method) throws Throwable {
+                return integerResult(contract, method).intValue();
+        }
+
+        private static BigInteger integerResult(SmartContract contract, String method) throws Throwable {
+                return contract.callInvokeFunction(method).getInvocationResult().getStack().get(0).getInteger();
+        }
+
+        private static List<Integer> stakingAttributes(int... ids) throws Throwable {
+                ContractParameter[] tokenIds = Arrays.stream(ids).mapToObj(CandyClashMigrationTest::tokenId)
+                                .toArray(ContractParameter[]::new);
+                return candyClashNft.callInvokeFunction(TestHelper.STAKING_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.array(tokenIds)))
+                                .getInvocationResult().getStack().get(0).getList().stream()
+                                .map(item -> item.getInteger().intValue())
+                                .collect(Collectors.toList());
+        }
+
+        private static int availableClaimAmount(int id) throws Throwable {
+                return candyClashStaking.callInvokeFunction(TestHelper.AVAILABLE_CLAIM_AMOUNT,
+                                Arrays.asList(ContractParameter.array(tokenId(id))))
+                                .getInvocationResult().getStack().get(0).getInteger().intValue();
+        }
+
+        private static String randomStakedVillainOwner(int seed) throws Throwable {
+                NeoInvokeFunction result = candyClashStaking.callInvokeFunction(
+                                TestHelper.RANDOM_STAKED_VILLAIN_OWNER, Arrays.asList(ContractParameter.integer(seed)));
+                assertNull(result.getInvocationResult().getException());
+                StackItem owner = result.getInvocationResult().getStack().get(0);
+                return owner.getType() == StackItemType.ANY ? null : owner.getAddress();
+        }
+
+        private static ContractParameter tokenId(int id) {
+                return ContractParameter.byteArray(TestHelper.tokenId(id));
+        }
+
+        /**
+         * Returns the raw storage value under the given key or null if there is none.
+         */
+        private static String storage(SmartContract contract, int key) throws Throwable {
+                return storage(contract, new byte[] { (byte) key });
+        }
+
+        private static String storage(SmartContract contract, int prefix, int id) throws Throwable {
+                byte[] tokenId = TestHelper.tokenId(id);
+                byte[] key = new byte[tokenId.length + 1];
+                key[0] = (byte) prefix;
+                System.arraycopy(tokenId, 0, key, 1, tokenId.length);
+                return storage(contract, key);
+        }
+
+        private static String storage(SmartContract contract, byte[] key) throws Throwable {
+                return neow3j.getStorage(contract.getScriptHash(), Numeric.toHexStringNoPrefix(key)).send()
+                                .getStorage();
+        }
+
+}
@@ -7,23 +7,37 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 import io.neocandy.tokens.nep17.NeoCandy;
 import io.neow3j.contract.FungibleToken;
 import io.neow3j.contract.NeoToken;
+import io.neow3j.contract.SmartContract;
+import io.neow3j.protocol.ObjectMapperFactory;
 import io.neow3j.protocol.core.response.NeoInvokeFunction;
+import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.script.ScriptBuilder;
+import io.neow3j.types.StackItemType;
 import io.neow3j.test.ContractTest;
 import io.neow3j.transaction.AccountSigner;
 import io.neow3j.transaction.Signer;
 import io.neow3j.types.ContractParameter;
+import io.neow3j.types.Hash160;
 
 @ContractTest(blockTime = 1, contracts = { NeoCandy.class,
                 CandyClashNFT.class,
-                CandyClashStaking.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+                CandyClashStaking.class,
+                RandomStreamHarness.class }, batchFile = "init.batch", configFile = "dev.neo-express")
 public class CandyClashMintTest extends AbstractCandyClashTest {
 
         @Test
@@ -40,6 +54,23 @@ public class CandyClashMintTest extends AbstractCandyClashTest {
                 assertEquals(10, result.getInvocationResult().getStack().get(0).getIterator().size());
         }
 
+        @Test
+        void tokensOfWithAttributesTest() throws Throwable {
+                log.info("====================== tokensOfWithAttributesTest() ======================");
+                TestHelper.mintNFT(gas, bob, BigInteger.valueOf(30_00000000L), candyClashNft, neow3j);
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.TOKENS_OF_WITH_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.hash160(bob)));
+                assertNull(result.getInvocationResult().getException());
+
+                List<StackItem> tokens = result.getInvocationResult().getStack().get(0).getIterator();
+                assertTrue(tokens.size() >= 3);
+                for (StackItem token : tokens) {
+                        // revealed candies always have a sugar of at least 1
+                        int packed = token.getList().get(1).getInteger().intValue();
+                        assertTrue(packed / 4 >= 1);
+                }
+        }
+
         @Test
         @RepeatedTest(value = 10)
         void paginationTest() throws Throwable {
@@ -58,6 +89,175 @@ public class CandyClashMintTest extends AbstractCandyClashTest {
                 log.info("villainCandies: {}", result.getInvocationResult().getStack().get(0).getString());
         }
 
+        @Test
+        void villagerTokensTest() throws Throwable {
+                log.info("====================== villagerTokensTest() ======================");
+                TestHelper.mintNFT(gas, alice, BigInteger.valueOf(100_00000000L), candyClashNft, neow3j);
+
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.VILLAGER_TOKENS,
+                                Arrays.asList(), new Signer[] { AccountSigner.calledByEntry(alice) });
+                assertNull(result.getInvocationResult().getException());
+                assertTrue(result.getInvocationResult().getStack().get(0).getIterator().size() > 0);
+        }
+
+        @Test
+        void stakingAttributesTest() throws Throwable {
+                log.info("====================== stakingAttributesTest() ======================");
+                TestHelper.mintNFT(gas, alice, BigInteger.valueOf(20_00000000L), candyClashNft, neow3j);
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.STAKING_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.array(
+                                                ContractParameter.byteArray(new byte[] { (byte) 1 }),
+                                                ContractParameter.byteArray(new byte[] { (byte) 2 }))));
+                assertNull(result.getInvocationResult().getException());
+
+                List<StackItem> attributes = result.getInvocationResult().getStack().get(0).getList();
+                assertEquals(2, attributes.size());
+                for (StackItem attribute : attributes) {
+                        int packed = attribute.getInteger().intValue();
+                        // genesis candy with a sugar of 1
+                        assertEquals(0, packed / 2 % 2);
+                        assertEquals(1, packed / 4);
+                }
+        }
+
+        @Test
+        void packedMetadataTest() throws Throwable {
+                log.info("====================== packedMetadataTest() ======================");
+                TestHelper.mintNFT(gas, bob, BigInteger.valueOf(10_00000000L), candyClashNft, neow3j);
+                List<StackItem> tokens = candyClashNft.callInvokeFunction(TestHelper.TOKENS_OF_WITH_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.hash160(bob)))
+                                .getInvocationResult().getStack().get(0).getIterator();
+                assertTrue(tokens.size() > 0);
+                String imageBaseUri = null;
+                for (StackItem token : tokens) {
+                        int packed = token.getList().get(1).getInteger().intValue();
+                        if (packed == 0) {
+                                continue;
+                        }
+                        byte[] tokenId = token.getList().get(0).getByteArray();
+                        int number = TestHelper.tokenNumber(tokenId);
+                        JsonNode properties = ObjectMapperFactory.getObjectMapper().readTree(candyClashNft
+                                        .callInvokeFunction(TestHelper.JSON_PROPERTIES,
+                                                        Arrays.asList(ContractParameter.byteArray(tokenId)))
+                                        .getInvocationResult().getStack().get(0).getString());
+
+                        // everything but the attributes is derived from the token id
+                        assertEquals("CandyClash Candy #" + number, properties.get("name").asText());
+                        String image = properties.get("image").asText();
+                        assertTrue(image.endsWith("/" + number + ".png"));
+                        String baseUri = image.substring(0, image.lastIndexOf('/'));
+                        if (imageBaseUri == null) {
+                                imageBaseUri = baseUri;
+                        }
+                        assertEquals(imageBaseUri, baseUri);
+
+                        Map<String, String> attributes = new HashMap<>();
+                        for (JsonNode attribute : properties.get("attributes")) {
+                                attributes.put(attribute.get("trait_type").asText(), attribute.get("value").asText());
+                        }
+                        assertEquals(packed % 2 == 1 ? "Villain" : "Villager", attributes.get("type"));
+                        assertEquals(String.valueOf(packed / 4), attributes.get("sugar"));
+                        assertEquals(String.valueOf(packed / 2 % 2), attributes.get("generation"));
+                }
+        }
+
+        @Test
+        void lazyRevealTest() throws Throwable {
+                log.info("====================== lazyRevealTest() ======================");
+                TestHelper.invokeWrite(candyClashNft, TestHelper.UPDATE_LAZY_REVEAL,
+                                Arrays.asList(ContractParameter.bool(true)), alice, neow3j);
+                TestHelper.mintNFT(gas, alice, BigInteger.valueOf(10_00000000L), candyClashNft, neow3j);
+                TestHelper.invokeWrite(candyClashNft, TestHelper.UPDATE_LAZY_REVEAL,
+                                Arrays.asList(ContractParameter.bool(false)), alice, neow3j);
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.TOTAL_SUPPLY);
+                int totalSupply = result.getInvocationResult().getStack().get(0).getInteger().intValue();
+                byte[] tokenId = TestHelper.tokenId(totalSupply);
+
+                result = candyClashNft.callInvokeFunction(TestHelper.STAKING_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId))));
+                assertTrue(result.getInvocationResult().getException().contains("not revealed"));
+                result = candyClashNft.callInvokeFunction(TestHelper.JSON_PROPERTIES,
+                                Arrays.asList(ContractParameter.byteArray(tokenId)));
+                assertNull(result.getInvocationResult().getException());
+
+                // the reveal cursor is persisted, so how far it got depends on the other
+                // tests of this class
+                int cursor = 0;
+                while (cursor < totalSupply) {
+                        cursor = TestHelper.invokeWrite(candyClashNft, TestHelper.REVEAL,
+                                        Arrays.asList(ContractParameter.integer(100)), alice, neow3j)
+                                        .get(0).getInteger().intValue();
+                }
+                result = candyClashNft.callInvokeFunction(TestHelper.STAKING_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId))));
+                assertNull(result.getInvocationResult().getException());
+        }
+
+        @Test
+        void saleConfigSettersTest() throws Throwable {
+                log.info("====================== saleConfigSettersTest() ======================");
+                List<Object> config = saleConfig();
+                boolean paused = (boolean) config.get(2);
+                boolean lazyReveal = (boolean) config.get(6);
+                // every setter only changes its own field of the sale config
+                assertSetterRoundTrip(config, TestHelper.UPDATE_GAS_PRICE, 0,
+                                ContractParameter.integer(7), BigInteger.valueOf(7), ContractParameter.integer(
+                                                (BigInteger) config.get(0)));
+                assertSetterRoundTrip(config, TestHelper.UPDATE_CANDY_PRICE, 1,
+                                ContractParameter.integer(8), BigInteger.valueOf(8), ContractParameter.integer(
+                                                (BigInteger) config.get(1)));
+                assertSetterRoundTrip(config, TestHelper.UPDATE_PAUSE, 2,
+                                ContractParameter.bool(!paused), !paused, ContractParameter.bool(paused));
+                assertSetterRoundTrip(config, TestHelper.CONNECT_STAKING_CONTRACT, 5,
+                                ContractParameter.hash160(bob), bob.getAddress(),
+                                ContractParameter.hash160(Hash160.fromAddress((String) config.get(5))));
+                assertSetterRoundTrip(config, TestHelper.UPDATE_LAZY_REVEAL, 6,
+                                ContractParameter.bool(!lazyReveal), !lazyReveal, ContractParameter.bool(lazyReveal));
+
+                Exception ex = assertThrows(Exception.class, () -> TestHelper.invokeWrite(candyClashNft,
+                                TestHelper.UPDATE_GAS_PRICE, Arrays.asList(ContractParameter.integer(1)), bob, neow3j));
+                assertTrue(ex.getMessage().contains("onlyOwner"));
+                assertEquals(config, saleConfig());
+        }
+
+        @Test
+        void randomStreamRangeTest() throws Throwable {
+                log.info("====================== randomStreamRangeTest() ======================");
+                SmartContract harness = ext.getDeployedContract(RandomStreamHarness.class);
+                // the smallest and largest state the generator can be in
+                for (int state : new int[] { 1, 2147483646 }) {
+                        for (int bound : new int[] { 1, 2, 10, 2147483647 }) {
+                                List<StackItem> values = harness.callInvokeFunction("next",
+                                                Arrays.asList(ContractParameter.integer(state),
+                                                                ContractParameter.integer(bound),
+                                                                ContractParameter.integer(50)))
+                                                .getInvocationResult().getStack().get(0).getList();
+                                assertEquals(50, values.size());
+                                for (StackItem value : values) {
+                                        int number = value.getInteger().intValue();
+                                        assertTrue(number >= 0 && number < bound);
+                                }
+                        }
+                }
+                for (int i = 0; i < 5; i++) {
+                        int seed = harness.callInvokeFunction("seed")
+                                        .getInvocationResult().getStack().get(0).getInteger().intValue();
+                        assertTrue(seed >= 1 && seed <= 2147483646);
+                }
+        }
+
+        @Test
+        void schemaVersionTest() throws Throwable {
+                log.info("====================== schemaVersionTest() ======================");
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.SCHEMA_VERSION);
+                assertEquals(1, result.getInvocationResult().getStack().get(0).getInteger().intValue());
+
+                // a fresh deployment starts with the current layout
+                Exception ex = assertThrows(Exception.class, () -> TestHelper.invokeWrite(candyClashNft,
+                                TestHelper.MIGRATE, Arrays.asList(ContractParameter.integer(10)), alice, neow3j));
+                assertTrue(ex.getMessage().contains("already migrated"));
+        }
+
         @Test
         void mintAmountReachedTest() {
                 log.info("====================== mintAmountReachedTest() ======================");
@@ -119,4 +319,48 @@ public class CandyClashMintTest extends AbstractCandyClashTest {
                 log.info("royalties: {}", result.getInvocationResult().getStack().get(0).getString());
         }
 
+        @Test
+        void royaltyInfoTest() throws Throwable {
+                log.info("====================== royaltyInfoTest() ======================");
+                TestHelper.mintNFT(gas, alice, BigInteger.valueOf(10_00000000L), candyClashNft, neow3j);
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.ROYALTY_INFO,
+                                Arrays.asList(ContractParameter.byteArray(new byte[] { (byte) 1 }),
+                                                ContractParameter.hash160(gas.getScriptHash()),
+                                                ContractParameter.integer(10000)));
+                assertNull(result.getInvocationResult().getException());
+
+                List<StackItem> royalties = result.getInvocationResult().getStack().get(0).getList();
+                assertEquals(1, royalties.size());
+                // 1000 basis points of the sale price
+                assertEquals(1000, royalties.get(0).getMap().values().stream()
+                                .filter(v -> v.getType() == StackItemType.INTEGER)
+                                .findFirst().get().getInteger().intValue());
+        }
+
+        private static void assertSetterRoundTrip(List<Object> config, String setter, int field,
+                        ContractParameter value, Object expected, ContractParameter restore) throws Throwable {
+                TestHelper.invokeWrite(candyClashNft, setter, Arrays.asList(value), alice, neow3j);
+                List<Object> updated = new ArrayList<>(config);
+                updated.set(field, expected);
+                assertEquals(updated, saleConfig());
+                TestHelper.invokeWrite(candyClashNft, setter, Arrays.asList(restore), alice, neow3j);
+                assertEquals(config, saleConfig());
+        }
+
+        /**
+         * Reads all sale config getters in one invocation.
+         */
+        private static List<Object> saleConfig() throws Throwable {
+                ScriptBuilder builder = new ScriptBuilder();
+                for (String getter : Arrays.asList(TestHelper.GAS_PRICE, TestHelper.CANDY_PRICE,
+                                TestHelper.IS_PAUSED, TestHelper.MAX_GENESIS_AMOUNT, TestHelper.MAX_TOKENS_AMOUNT,
+                                TestHelper.STAKING_CONTRACT, TestHelper.LAZY_REVEAL)) {
+                        builder.contractCall(candyClashNft.getScriptHash(), getter, Arrays.asList());
+                }
+                return TestHelper.callScript(builder.toArray(), alice, neow3j).stream()
+                                .map(item -> item.getType() == StackItemType.BYTE_STRING ? item.getAddress()
+                                                : item.getValue())
+                                .collect(Collectors.toList());
+        }
+
 }
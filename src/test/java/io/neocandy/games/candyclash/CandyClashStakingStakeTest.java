@@ -1,198 +1,470 @@
 package io.neocandy.games.candyclash;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import io.neocandy.tokens.nep17.NeoCandy;
-import io.neow3j.protocol.core.response.NeoInvokeFunction;
-import io.neow3j.protocol.core.response.NeoSendRawTransaction;
-import io.neow3j.protocol.core.response.NeoApplicationLog.Execution.Notification;
+import io.neow3j.contract.SmartContract;
+import io.neow3j.protocol.core.response.NeoApplicationLog.Execution;
+import io.neow3j.protocol.core.response.Notification;
 import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.script.ScriptBuilder;
 import io.neow3j.test.ContractTest;
-import io.neow3j.transaction.AccountSigner;
-import io.neow3j.transaction.Signer;
-import io.neow3j.transaction.Transaction;
 import io.neow3j.types.ContractParameter;
-import io.neow3j.utils.Await;
-
-import static io.neocandy.games.candyclash.TestHelper.transfer11;
-//import static io.neocandy.games.candyclash.TestHelper.mintToken;
-import static io.neocandy.games.candyclash.TestHelper.getProperties;
+import io.neow3j.types.Hash160;
+import io.neow3j.wallet.Account;
 
 @ContractTest(blockTime = 1, contracts = { NeoCandy.class,
                 CandyClashNFT.class,
-                CandyClashStaking.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+                CandyClashStaking.class,
+                ReentrantStaker.class }, batchFile = "init.batch", configFile = "dev.neo-express")
 public class CandyClashStakingStakeTest extends AbstractCandyClashTest {
 
-        private static final int BLOCKS_PER_DAY = 5760;
-        private static final int CANDY_PER_DAY = 1000;
-        private static final String EVENT_CLAIM_GOOD_CANDY = "goodCandyClaim";
-
-        /*
-         * @Test
-         * 
-         * @Disabled("Takes too long, test it alone")
-         * void claimableAmountMultipleTokensTest() throws Throwable {
-         * // mint tokens
-         * byte[] tokenId1 = new byte[] { (byte) 1 };
-         * byte[] tokenId2 = new byte[] { (byte) 2 };
-         * mintToken(tokenId1, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * mintToken(tokenId2, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake tokens
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId1, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId2, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * 
-         * // fast forward
-         * ext.fastForward(BLOCKS_PER_DAY);
-         * 
-         * NeoInvokeFunction result =
-         * candyClashStaking.callInvokeFunction(TestHelper.AVAILABLE_CLAIM_AMOUNT,
-         * Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId1),
-         * ContractParameter.byteArray(tokenId2))));
-         * assertNull(result.getResult().getException());
-         * String claimAmount =
-         * String.valueOf(result.getInvocationResult().getStack().get(0).getInteger());
-         * assertTrue(claimAmount.substring(0, 4).equals(String.valueOf(2 *
-         * CANDY_PER_DAY)));
-         * }
-         * 
-         * @Test
-         * void claimableAmountSingleTokenTest() throws Throwable {
-         * // mint token
-         * byte[] tokenId1 = new byte[] { (byte) 6 };
-         * mintToken(tokenId1, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake token
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId1, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * 
-         * // fast forward
-         * ext.fastForward(MIN_STAKE_BLOCK_COUNT);
-         * 
-         * NeoInvokeFunction result =
-         * candyClashStaking.callInvokeFunction(TestHelper.AVAILABLE_CLAIM_AMOUNT,
-         * Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId1)))
-         * );
-         * assertNull(result.getResult().getException());
-         * }
-         * 
-         * @Test
-         * void minimumStakeDurationNotReachedTest() throws Throwable {
-         * // mint token
-         * byte[] tokenId = new byte[] { (byte) 3 };
-         * mintToken(tokenId, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake token
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * 
-         * NeoInvokeFunction result =
-         * candyClashStaking.callInvokeFunction(TestHelper.CLAIM,
-         * Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId)),
-         * ContractParameter.bool(false), ContractParameter.hash160(alice)),
-         * new Signer[] { AccountSigner.calledByEntry(alice) });
-         * assertTrue(result.getResult().getException().
-         * contains("minimum stake duration not reached"));
-         * }
-         * 
-         * @Test
-         * void notOwnerToClaimTest() throws Throwable {
-         * // mint token
-         * byte[] tokenId = new byte[] { (byte) 4 };
-         * mintToken(tokenId, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake token
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * 
-         * NeoInvokeFunction result =
-         * candyClashStaking.callInvokeFunction(TestHelper.CLAIM,
-         * Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId)),
-         * ContractParameter.bool(false), ContractParameter.hash160(alice)),
-         * new Signer[] { AccountSigner.calledByEntry(bob) });
-         * assertTrue(result.getResult().getException().contains("not owner"));
-         * }
-         * 
-         * @Test
-         * void claimAndPayTaxesTest() throws Throwable {
-         * // mint token
-         * byte[] tokenId = new byte[] { (byte) 5 };
-         * mintToken(tokenId, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake token
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * ext.fastForward(MIN_STAKE_BLOCK_COUNT);
-         * 
-         * NeoInvokeFunction result =
-         * candyClashStaking.callInvokeFunction(TestHelper.CLAIM,
-         * Arrays.asList(ContractParameter.array(ContractParameter.byteArray(tokenId)),
-         * ContractParameter.bool(false), ContractParameter.hash160(alice)),
-         * new Signer[] { AccountSigner.calledByEntry(alice) });
-         * assertNull(result.getResult().getException());
-         * }
-         * 
-         * @Test
-         * void claimGoodCandyEventTest() throws Throwable {
-         * // mint token
-         * byte[] tokenId = new byte[] { (byte) 8 };
-         * mintToken(tokenId, getProperties("good", "1"), alice, candyClashNft,
-         * neow3j);
-         * 
-         * // stake token
-         * assertDoesNotThrow(() -> transfer11(candyClashNft, tokenId, alice,
-         * candyClashStaking.getScriptHash(),
-         * neow3j));
-         * ext.fastForward(MIN_STAKE_BLOCK_COUNT);
-         * 
-         * Transaction tx = candyClashStaking.invokeFunction(TestHelper.CLAIM,
-         * ContractParameter.array(ContractParameter.byteArray(tokenId)),
-         * ContractParameter.bool(false), ContractParameter.hash160(alice))
-         * .signers(new Signer[] { AccountSigner.calledByEntry(alice) }).sign();
-         * 
-         * tx.send();
-         * Await.waitUntilTransactionIsExecuted(tx.getTxId(), neow3j);
-         * 
-         * List<Notification> notification =
-         * tx.getApplicationLog().getExecutions().get(0).getNotifications()
-         * .stream()
-         * .filter(v -> v.getEventName().equals(EVENT_CLAIM_GOOD_CANDY))
-         * .collect(Collectors.toList());
-         * 
-         * assertEquals(1, notification.size());
-         * List<StackItem> eventParams = notification.get(0).getState().getList();
-         * 
-         * assertArrayEquals(tokenId, eventParams.get(0).getByteArray());
-         * assertEquals(false, eventParams.get(2).getBoolean());
-         * 
-         * }
+        private static final Hash160 LEDGER = new Hash160("da65b600f7124ce6c79950c1772a36403104f2be");
+        private static final Hash160 STD_LIB = new Hash160("acce6fd80d44e1796aa0c2c625e9e4e0ce39efc0");
+
+        @Test
+        void claimAllPaysSameAsPerTokenClaimsTest() throws Throwable {
+                log.info("====================== claimAllPaysSameAsPerTokenClaimsTest() ======================");
+                List<byte[]> candies = new ArrayList<>(mintCandies(alice, false, 3));
+                candies.addAll(mintCandies(alice, true, 1));
+                stakeMany(alice, candies);
+                ext.fastForward(MIN_STAKE_BLOCK_COUNT);
+
+                List<byte[]> staked = stakedTokensOf(alice);
+                int villagers = stakedCandies(alice, false).size();
+                int lastTokenNumber = staked.stream().mapToInt(TestHelper::tokenNumber).max().getAsInt();
+                ContractParameter owner = ContractParameter.hash160(alice);
+                // both claims are simulated on top of the same block, so they have to pay
+                // the same apart from rounding: the account claim rounds its villager
+                // rewards and taxes once instead of once per candy
+                for (int attempt = 0;; attempt++) {
+                        List<StackItem> claimAll = callAtCurrentBlock(alice, TestHelper.CLAIM_ALL, owner,
+                                        ContractParameter.integer(0), ContractParameter.integer(lastTokenNumber));
+                        List<StackItem> perToken = callAtCurrentBlock(alice, TestHelper.CLAIM, tokenIds(staked),
+                                        ContractParameter.bool(false), owner);
+                        if (claimAll.get(0).getInteger().equals(perToken.get(0).getInteger())) {
+                                BigInteger claimAllAmount = claimAll.get(1).getInteger();
+                                BigInteger perTokenAmount = perToken.get(1).getInteger();
+                                assertTrue(claimAllAmount.signum() > 0);
+                                assertTrue(claimAllAmount.subtract(perTokenAmount).abs()
+                                                .compareTo(BigInteger.valueOf(villagers)) <= 0);
+                                break;
+                        }
+                        assertTrue(attempt < 5, "no two simulations on the same block");
+                }
+        }
+
+        @Test
+        void partialUnstakeCheckpointTest() throws Throwable {
+                log.info("====================== partialUnstakeCheckpointTest() ======================");
+                List<byte[]> villagers = mintCandies(bob, false, 3);
+                stakeMany(bob, villagers);
+                ext.fastForward(MIN_STAKE_BLOCK_COUNT);
+                assertVillagerAccountMatchesStakes(bob);
+
+                ContractParameter owner = ContractParameter.hash160(bob);
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM,
+                                Arrays.asList(tokenIds(villagers.subList(0, 1)), ContractParameter.bool(false), owner),
+                                bob, neow3j);
+                assertVillagerAccountMatchesStakes(bob);
+
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM,
+                                Arrays.asList(tokenIds(villagers.subList(1, 2)), ContractParameter.bool(true), owner),
+                                bob, neow3j);
+                assertOwnedBy(bob.getAddress(), villagers.get(1));
+                assertVillagerAccountMatchesStakes(bob);
+
+                ext.fastForward(MIN_STAKE_BLOCK_COUNT);
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM_ALL,
+                                Arrays.asList(owner, ContractParameter.integer(0), ContractParameter.integer(1)),
+                                bob, neow3j);
+                assertVillagerAccountMatchesStakes(bob);
+
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.CLAIM,
+                                Arrays.asList(tokenIds(villagers.subList(2, 3)), ContractParameter.bool(true), owner),
+                                bob, neow3j);
+                assertOwnedBy(bob.getAddress(), villagers.get(2));
+                assertVillagerAccountMatchesStakes(bob);
+        }
+
+        @Test
+        void reentrantUnstakeIsPaidOnceTest() throws Throwable {
+                log.info("====================== reentrantUnstakeIsPaidOnceTest() ======================");
+                SmartContract staker = ext.getDeployedContract(ReentrantStaker.class);
+                List<byte[]> villagers = mintCandies(alice, false, 2);
+                for (byte[] tokenId : villagers) {
+                        TestHelper.transfer11(candyClashNft, tokenId, alice, staker.getScriptHash(), neow3j);
+                        TestHelper.invokeWrite(staker, "stake", Arrays.asList(
+                                        ContractParameter.hash160(candyClashNft.getScriptHash()),
+                                        ContractParameter.hash160(candyClashStaking.getScriptHash()),
+                                        ContractParameter.byteArray(tokenId)), alice, neow3j);
+                }
+                ext.fastForward(MIN_STAKE_BLOCK_COUNT);
+                BigInteger budget = rewardBudget();
+                BigInteger balance = candyToken.getBalanceOf(staker.getScriptHash());
+
+                // the staker calls claimAll from onNEP11Payment when the unstaked candy
+                // comes back, which must only pay the rewards left on its account
+                TestHelper.invokeWrite(staker, "unstake", Arrays.asList(
+                                ContractParameter.hash160(candyClashStaking.getScriptHash()),
+                                tokenIds(villagers.subList(0, 1))), alice, neow3j);
+
+                BigInteger paid = candyToken.getBalanceOf(staker.getScriptHash()).subtract(balance);
+                assertTrue(paid.signum() > 0);
+                assertEquals(budget.subtract(paid), rewardBudget());
+                assertOwnedBy(staker.getScriptHash().toAddress(), villagers.get(0));
+                assertOwnedBy(candyClashStaking.getScriptHash().toAddress(), villagers.get(1));
+        }
+
+        private static BigInteger rewardBudget() throws Throwable {
+                return candyClashStaking.callInvokeFunction(TestHelper.MAX_CANDIES_TO_EARN)
+                                .getInvocationResult().getStack().get(0).getInteger();
+        }
+
+        @Test
+        void weightedVillainSelectionTest() throws Throwable {
+                log.info("====================== weightedVillainSelectionTest() ======================");
+                for (Account owner : Arrays.asList(alice, bob)) {
+                        if (stakedCandies(owner, true).isEmpty()) {
+                                stakeMany(owner, mintCandies(owner, true, 1));
+                        }
+                }
+
+                // the villains are laid out by token number, each covering as many
+                // consecutive seeds as it has sugar
+                List<Object[]> villains = new ArrayList<>();
+                for (Account owner : Arrays.asList(alice, bob)) {
+                        List<byte[]> staked = stakedCandies(owner, true);
+                        List<Integer> attributes = attributesOf(staked);
+                        for (int i = 0; i < staked.size(); i++) {
+                                int sugar = attributes.get(i) / 4;
+                                villains.add(new Object[] { TestHelper.tokenNumber(staked.get(i)), sugar, owner });
+                        }
+                }
+                villains.sort((a, b) -> Integer.compare((int) a[0], (int) b[0]));
+                int totalSugar = villains.stream().mapToInt(v -> (int) v[1]).sum();
+                assertEquals(totalSugar, candyClashStaking.callInvokeFunction(TestHelper.TOTAL_SUGAR_STAKED)
+                                .getInvocationResult().getStack().get(0).getInteger().intValue());
+
+                int start = 0;
+                for (Object[] villain : villains) {
+                        int end = start + (int) villain[1];
+                        String owner = ((Account) villain[2]).getAddress();
+                        assertEquals(owner, randomStakedVillainOwner(start));
+                        assertEquals(owner, randomStakedVillainOwner(end - 1));
+                        assertEquals(owner, randomStakedVillainOwner(totalSugar + start));
+                        start = end;
+                }
+        }
+
+        private static String randomStakedVillainOwner(int seed) throws Throwable {
+                return candyClashStaking.callInvokeFunction(TestHelper.RANDOM_STAKED_VILLAIN_OWNER,
+                                Arrays.asList(ContractParameter.integer(seed)))
+                                .getInvocationResult().getStack().get(0).getAddress();
+        }
+
+        @Test
+        void stakeManyMatchesSingleStakesTest() throws Throwable {
+                log.info("====================== stakeManyMatchesSingleStakesTest() ======================");
+                List<byte[]> batch = new ArrayList<>(mintCandies(alice, false, 2));
+                batch.addAll(mintCandies(alice, true, 1));
+                List<byte[]> singles = new ArrayList<>(mintCandies(bob, false, 2));
+                singles.addAll(mintCandies(bob, true, 1));
+                List<Integer> batchAttributes = attributesOf(batch);
+                List<Integer> singleAttributes = attributesOf(singles);
+
+                int[] before = stakingTotals();
+                stakeMany(alice, batch);
+                int[] afterBatch = stakingTotals();
+                for (byte[] tokenId : singles) {
+                        TestHelper.transfer11(candyClashNft, tokenId, bob, candyClashStaking.getScriptHash(), neow3j);
+                }
+                int[] afterSingles = stakingTotals();
+
+                // both ways stake two villagers and one villain
+                assertEquals(2, afterBatch[0] - before[0]);
+                assertEquals(1, afterBatch[1] - before[1]);
+                assertEquals(batchAttributes.get(2) / 4, afterBatch[2] - before[2]);
+                assertEquals(2, afterSingles[0] - afterBatch[0]);
+                assertEquals(1, afterSingles[1] - afterBatch[1]);
+                assertEquals(singleAttributes.get(2) / 4, afterSingles[2] - afterBatch[2]);
+
+                assertStaked(alice, batch, batchAttributes);
+                assertStaked(bob, singles, singleAttributes);
+                assertVillagerAccountMatchesStakes(alice);
+                assertVillagerAccountMatchesStakes(bob);
+        }
+
+        /**
+         * Returns the staked villager count, villain count and sugar.
+         */
+        private static int[] stakingTotals() throws Throwable {
+                byte[] script = new ScriptBuilder()
+                                .contractCall(candyClashStaking.getScriptHash(),
+                                                TestHelper.TOTAL_VILLAGER_CANDIES_STAKED, Arrays.asList())
+                                .contractCall(candyClashStaking.getScriptHash(),
+                                                TestHelper.TOTAL_VILLAIN_CANDIES_STAKED, Arrays.asList())
+                                .contractCall(candyClashStaking.getScriptHash(), TestHelper.TOTAL_SUGAR_STAKED,
+                                                Arrays.asList())
+                                .toArray();
+                return TestHelper.callScript(script, alice, neow3j).stream()
+                                .mapToInt(item -> item.getInteger().intValue())
+                                .toArray();
+        }
+
+        private static void assertStaked(Account owner, List<byte[]> candies, List<Integer> attributes)
+                        throws Throwable {
+                List<Integer> staked = stakedTokensOf(owner).stream()
+                                .map(TestHelper::tokenNumber)
+                                .collect(Collectors.toList());
+                Map<Integer, Integer> stakingInventory = new HashMap<>();
+                for (StackItem token : candyClashNft.callInvokeFunction(TestHelper.TOKENS_OF_WITH_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.hash160(candyClashStaking.getScriptHash())))
+                                .getInvocationResult().getStack().get(0).getIterator()) {
+                        stakingInventory.put(TestHelper.tokenNumber(token.getList().get(0).getByteArray()),
+                                        token.getList().get(1).getInteger().intValue());
+                }
+                for (int i = 0; i < candies.size(); i++) {
+                        int tokenNumber = TestHelper.tokenNumber(candies.get(i));
+                        assertOwnedBy(candyClashStaking.getScriptHash().toAddress(), candies.get(i));
+                        assertTrue(staked.contains(tokenNumber));
+                        assertEquals(attributes.get(i), stakingInventory.get(tokenNumber));
+                }
+        }
+
+        @Test
+        void taxRemainderIsCarriedOverTest() throws Throwable {
+                log.info("====================== taxRemainderIsCarriedOverTest() ======================");
+                if (stakedCandies(alice, false).isEmpty()) {
+                        stakeMany(alice, mintCandies(alice, false, 1));
+                }
+                while (stakingTotals()[2] < 2) {
+                        stakeMany(alice, mintCandies(alice, true, 1));
+                }
+                byte[] villager = stakedCandies(alice, false).get(0);
+
+                for (int round = 0; round < 2; round++) {
+                        ext.fastForward(1);
+                        BigInteger[] before = taxState();
+                        byte[] script = new ScriptBuilder()
+                                        .contractCall(candyClashStaking.getScriptHash(),
+                                                        TestHelper.AVAILABLE_CLAIM_AMOUNT,
+                                                        Arrays.asList(tokenIds(Arrays.asList(villager))))
+                                        .contractCall(candyClashStaking.getScriptHash(), TestHelper.CLAIM,
+                                                        Arrays.asList(tokenIds(Arrays.asList(villager)),
+                                                                        ContractParameter.bool(false),
+                                                                        ContractParameter.hash160(alice)))
+                                        .toArray();
+                        List<StackItem> result = TestHelper.invokeScript(script, alice, neow3j);
+                        BigInteger tax = result.get(0).getInteger().subtract(result.get(1).getInteger());
+                        BigInteger[] after = taxState();
+
+                        // the taxes end up either in candyPerSugar or in the carried over
+                        // remainder, which never reaches a whole candy per sugar
+                        BigInteger sugar = before[2];
+                        assertEquals(sugar, after[2]);
+                        assertTrue(tax.signum() > 0);
+                        assertEquals(before[0].multiply(sugar).add(before[1]).add(tax),
+                                        after[0].multiply(sugar).add(after[1]));
+                        assertTrue(after[1].signum() >= 0);
+                        assertTrue(after[1].compareTo(sugar) < 0);
+                }
+        }
+
+        /**
+         * Returns candyPerSugar, the unaccounted rewards and the staked sugar.
+         */
+        private static BigInteger[] taxState() throws Throwable {
+                byte[] script = new ScriptBuilder()
+                                .contractCall(candyClashStaking.getScriptHash(), TestHelper.CANDY_PER_SUGAR,
+                                                Arrays.asList())
+                                .contractCall(candyClashStaking.getScriptHash(), TestHelper.UNACCOUNTED_REWARDS,
+                                                Arrays.asList())
+                                .contractCall(candyClashStaking.getScriptHash(), TestHelper.TOTAL_SUGAR_STAKED,
+                                                Arrays.asList())
+                                .toArray();
+                return TestHelper.callScript(script, alice, neow3j).stream()
+                                .map(StackItem::getInteger)
+                                .toArray(BigInteger[]::new);
+        }
+
+        @Test
+        void compactClaimEventTest() throws Throwable {
+                log.info("====================== compactClaimEventTest() ======================");
+                List<byte[]> villagers = stakedCandies(alice, false);
+                if (villagers.size() < 2) {
+                        stakeMany(alice, mintCandies(alice, false, 2 - villagers.size()));
+                        villagers = stakedCandies(alice, false);
+                }
+                villagers = villagers.subList(0, 2);
+                ext.fastForward(1);
+
+                setCompactEvents(true);
+                try {
+                        Execution execution = TestHelper.invokeWriteExecution(candyClashStaking, TestHelper.CLAIM,
+                                        Arrays.asList(tokenIds(villagers), ContractParameter.bool(false),
+                                                        ContractParameter.hash160(alice)),
+                                        alice, neow3j);
+                        List<Notification> notifications = execution.getNotifications().stream()
+                                        .filter(n -> n.getContract().equals(candyClashStaking.getScriptHash()))
+                                        .collect(Collectors.toList());
+                        assertEquals(1, notifications.size());
+                        assertEquals("claimBatch", notifications.get(0).getEventName());
+
+                        List<StackItem> payload = notifications.get(0).getState().getList();
+                        List<StackItem> ids = payload.get(0).getList();
+                        assertEquals(villagers.size(), ids.size());
+                        for (int i = 0; i < ids.size(); i++) {
+                                assertArrayEquals(villagers.get(i), ids.get(i).getByteArray());
+                        }
+                        byte[] script = new ScriptBuilder()
+                                        .contractCall(STD_LIB, "deserialize",
+                                                        Arrays.asList(ContractParameter
+                                                                        .byteArray(payload.get(1).getByteArray())))
+                                        .toArray();
+                        List<StackItem> amounts = TestHelper.callScript(script, alice, neow3j).get(0).getList();
+                        assertEquals(villagers.size(), amounts.size());
+                        BigInteger total = amounts.stream()
+                                        .map(StackItem::getInteger)
+                                        .reduce(BigInteger.ZERO, BigInteger::add);
+                        assertTrue(total.signum() > 0);
+                        assertEquals(total, payload.get(2).getInteger());
+                        assertEquals(total, execution.getStack().get(0).getInteger());
+                        assertFalse(payload.get(3).getBoolean());
+                } finally {
+                        setCompactEvents(false);
+                }
+        }
+
+        private static void setCompactEvents(boolean value) throws Throwable {
+                TestHelper.invokeWrite(candyClashStaking, TestHelper.SET_COMPACT_EVENTS,
+                                Arrays.asList(ContractParameter.bool(value)), alice, neow3j);
+        }
+
+        /**
+         * The account amount floors the summed rewards of all villagers once, the per
+         * token amounts floor each of them, so both may only differ by less than one
+         * per additional candy.
+         */
+        private static void assertVillagerAccountMatchesStakes(Account owner) throws Throwable {
+                List<byte[]> villagers = stakedCandies(owner, false);
+                byte[] script = new ScriptBuilder()
+                                .contractCall(candyClashStaking.getScriptHash(),
+                                                TestHelper.AVAILABLE_VILLAGER_CLAIM_AMOUNT,
+                                                Arrays.asList(ContractParameter.hash160(owner)))
+                                .contractCall(candyClashStaking.getScriptHash(), TestHelper.AVAILABLE_CLAIM_AMOUNT,
+                                                Arrays.asList(tokenIds(villagers)))
+                                .toArray();
+                List<StackItem> amounts = TestHelper.callScript(script, owner, neow3j);
+                BigInteger difference = amounts.get(0).getInteger().subtract(amounts.get(1).getInteger());
+                assertTrue(difference.signum() >= 0);
+                assertTrue(difference.compareTo(BigInteger.valueOf(Math.max(villagers.size() - 1, 0))) <= 0);
+        }
+
+        private static void assertOwnedBy(String owner, byte[] tokenId) throws Throwable {
+                assertEquals(owner, candyClashNft.callInvokeFunction(TestHelper.OWNER_OF,
+                                Arrays.asList(ContractParameter.byteArray(tokenId)))
+                                .getInvocationResult().getStack().get(0).getAddress());
+        }
+
+        /**
+         * Mints genesis candies for {@code owner} until it holds at least {@code amount}
+         * unstaked candies of the requested type and returns them.
+         */
+        protected static List<byte[]> mintCandies(Account owner, boolean villain, int amount) throws Throwable {
+                List<byte[]> candies = candiesOf(owner, villain);
+                // one in ten candies is a villain, so a few mints of ten usually suffice
+                for (int i = 0; i < 30 && candies.size() < amount; i++) {
+                        TestHelper.mintNFT(gas, owner, BigInteger.valueOf(100_00000000L), candyClashNft, neow3j);
+                        candies = candiesOf(owner, villain);
+                }
+                assertTrue(candies.size() >= amount);
+                return candies.subList(0, amount);
+        }
+
+        private static List<byte[]> candiesOf(Account owner, boolean villain) throws Throwable {
+                List<StackItem> tokens = candyClashNft.callInvokeFunction(TestHelper.TOKENS_OF_WITH_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.hash160(owner)))
+                                .getInvocationResult().getStack().get(0).getIterator();
+                List<byte[]> candies = new ArrayList<>();
+                for (StackItem token : tokens) {
+                        int attributes = token.getList().get(1).getInteger().intValue();
+                        if (attributes != 0 && (attributes % 2 == 1) == villain) {
+                                candies.add(token.getList().get(0).getByteArray());
+                        }
+                }
+                return candies;
+        }
+
+        protected static void stakeMany(Account owner, List<byte[]> candies) throws Throwable {
+                TestHelper.invokeWrite(candyClashNft, TestHelper.STAKE_MANY, Arrays.asList(tokenIds(candies)),
+                                owner, neow3j);
+        }
+
+        protected static List<byte[]> stakedTokensOf(Account owner) throws Throwable {
+                return candyClashStaking.callInvokeFunction(TestHelper.STAKED_TOKENS_OF,
+                                Arrays.asList(ContractParameter.hash160(owner)))
+                                .getInvocationResult().getStack().get(0).getIterator().stream()
+                                .map(StackItem::getByteArray)
+                                .collect(Collectors.toList());
+        }
+
+        /**
+         * Returns the staked candies of {@code owner} of the requested type.
+         */
+        protected static List<byte[]> stakedCandies(Account owner, boolean villain) throws Throwable {
+                List<byte[]> staked = stakedTokensOf(owner);
+                List<Integer> attributes = attributesOf(staked);
+                List<byte[]> candies = new ArrayList<>();
+                for (int i = 0; i < staked.size(); i++) {
+                        if ((attributes.get(i) % 2 == 1) == villain) {
+                                candies.add(staked.get(i));
+                        }
+                }
+                return candies;
+        }
+
+        protected static List<Integer> attributesOf(List<byte[]> candies) throws Throwable {
+                if (candies.isEmpty()) {
+                        return new ArrayList<>();
+                }
+                return candyClashNft.callInvokeFunction(TestHelper.STAKING_ATTRIBUTES,
+                                Arrays.asList(tokenIds(candies)))
+                                .getInvocationResult().getStack().get(0).getList().stream()
+                                .map(a -> a.getInteger().intValue())
+                                .collect(Collectors.toList());
+        }
+
+        protected static ContractParameter tokenIds(List<byte[]> candies) {
+                return ContractParameter.array(candies.stream()
+                                .map(ContractParameter::byteArray)
+                                .collect(Collectors.toList()));
+        }
+
+        /**
+         * Simulates a staking call and returns the index of the block it ran on top of
+         * together with its result.
          */
+        private static List<StackItem> callAtCurrentBlock(Account signer, String method, ContractParameter... params)
+                        throws Throwable {
+                byte[] script = new ScriptBuilder()
+                                .contractCall(LEDGER, "currentIndex", Arrays.asList())
+                                .contractCall(candyClashStaking.getScriptHash(), method, Arrays.asList(params))
+                                .toArray();
+                return TestHelper.callScript(script, signer, neow3j);
+        }
 
 }
@@ -0,0 +1,100 @@
+package io.neocandy.games.candyclash;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import io.neocandy.tokens.nep17.NeoCandy;
+import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.test.ContractTest;
+import io.neow3j.test.DeployConfig;
+import io.neow3j.test.DeployConfiguration;
+import io.neow3j.test.DeployContext;
+import io.neow3j.types.ContractParameter;
+import io.neow3j.wallet.Account;
+
+/**
+ * Mints gen 1 candies for CANDY, which requires the genesis sale to be sold out
+ * first, so this test deploys the NFT with a small genesis amount.
+ */
+@ContractTest(blockTime = 1, contracts = { NeoCandy.class,
+                CandyClashNFT.class,
+                CandyClashStaking.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+public class CandyClashStolenMintTest extends AbstractCandyClashTest {
+
+        private static final int GENESIS_AMOUNT = 100;
+
+        @DeployConfig(CandyClashNFT.class)
+        public static DeployConfiguration configureCandyClashNFT(DeployContext ctx) throws Exception {
+                return candyClashNFTConfig(ctx, GENESIS_AMOUNT);
+        }
+
+        @BeforeAll
+        public static void mintGenesis() throws Throwable {
+                // bob buys the whole genesis sale and stakes his villains, so that he
+                // is the only one who can steal gen 1 candies
+                for (int i = 0; i < GENESIS_AMOUNT / 10; i++) {
+                        TestHelper.mintNFT(gas, bob, BigInteger.valueOf(100_00000000L), candyClashNft, neow3j);
+                }
+                List<ContractParameter> villains = new ArrayList<>();
+                for (StackItem token : candyClashNft.callInvokeFunction(TestHelper.TOKENS_OF_WITH_ATTRIBUTES,
+                                Arrays.asList(ContractParameter.hash160(bob)))
+                                .getInvocationResult().getStack().get(0).getIterator()) {
+                        if (token.getList().get(1).getInteger().intValue() % 2 == 1) {
+                                villains.add(ContractParameter.byteArray(token.getList().get(0).getByteArray()));
+                        }
+                }
+                assertTrue(villains.size() > 0);
+                TestHelper.invokeWrite(candyClashNft, TestHelper.STAKE_MANY,
+                                Arrays.asList(ContractParameter.array(villains)), bob, neow3j);
+        }
+
+        @Test
+        void stolenBatchMintTest() throws Throwable {
+                log.info("====================== stolenBatchMintTest() ======================");
+                int stolen = 0;
+                for (int round = 0; round < 20 && stolen == 0; round++) {
+                        int totalSupply = intResult(TestHelper.TOTAL_SUPPLY);
+                        int aliceBalance = balanceOf(alice);
+                        int bobBalance = balanceOf(bob);
+                        TestHelper.mintNFT(candyToken, alice, BigInteger.valueOf(10_000000000L), candyClashNft,
+                                        neow3j);
+                        assertEquals(totalSupply + 10, intResult(TestHelper.TOTAL_SUPPLY));
+
+                        // every candy of the batch is credited either to the buyer or to
+                        // the owner of the villain that stole it
+                        List<String> bought = new ArrayList<>();
+                        for (int id = totalSupply + 1; id <= totalSupply + 10; id++) {
+                                String owner = candyClashNft.callInvokeFunction(TestHelper.OWNER_OF,
+                                                Arrays.asList(ContractParameter.byteArray(TestHelper.tokenId(id))))
+                                                .getInvocationResult().getStack().get(0).getAddress();
+                                assertTrue(owner.equals(alice.getAddress()) || owner.equals(bob.getAddress()));
+                                bought.add(owner);
+                        }
+                        int roundStolen = (int) bought.stream().filter(bob.getAddress()::equals).count();
+                        assertEquals(aliceBalance + 10 - roundStolen, balanceOf(alice));
+                        assertEquals(bobBalance + roundStolen, balanceOf(bob));
+                        stolen += roundStolen;
+                }
+                assertTrue(stolen > 0);
+        }
+
+        private static int intResult(String method) throws Throwable {
+                return candyClashNft.callInvokeFunction(method)
+                                .getInvocationResult().getStack().get(0).getInteger().intValue();
+        }
+
+        private static int balanceOf(Account owner) throws Throwable {
+                return candyClashNft.callInvokeFunction(TestHelper.BALANCE_OF,
+                                Arrays.asList(ContractParameter.hash160(owner)))
+                                .getInvocationResult().getStack().get(0).getInteger().intValue();
+        }
+
+}
@@ -0,0 +1,115 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageContext;
+import io.neow3j.devpack.StorageMap;
+import io.neow3j.devpack.annotations.DisplayName;
+import io.neow3j.devpack.annotations.OnDeployment;
+import io.neow3j.devpack.annotations.Permission;
+import io.neow3j.devpack.contracts.ContractManagement;
+import io.neow3j.devpack.contracts.StdLib;
+
+/**
+ * Writes candies in the storage layout of the first CandyClashNFT release, so
+ * that it can be updated to CandyClashNFT to test the migration. Only the
+ * storage the migration reads is written.
+ */
+@DisplayName("CandyClashNFT")
+@Permission(contract = "0xfffdc93764dbaddd97c48f252a53ea4643faa3fd", methods = "*")
+public class LegacyCandyClashNFT {
+
+    private static final StorageContext ctx = Storage.getStorageContext();
+
+    private static final byte[] ownerKey = Helper.toByteArray((byte) 1);
+    private static final byte[] totalSupplyKey = Helper.toByteArray((byte) 2);
+    private static final byte[] gasPriceKey = Helper.toByteArray((byte) 4);
+    private static final byte[] candyPriceKey = Helper.toByteArray((byte) 5);
+    private static final byte[] candyHashKey = Helper.toByteArray((byte) 6);
+    private static final byte[] tokensOfKey = Helper.toByteArray((byte) 24);
+    private static final byte[] imageBaseUriKey = Helper.toByteArray((byte) 27);
+    private static final byte[] maxTokensAmountKey = Helper.toByteArray((byte) 28);
+    private static final byte[] maxGenesisAmountKey = Helper.toByteArray((byte) 29);
+    private static final byte[] isPausedKey = Helper.toByteArray((byte) 30);
+    private static final byte[] royaltiesReceiverKey = Helper.toByteArray((byte) 31);
+    private static final byte[] royaltiesAmountKey = Helper.toByteArray((byte) 32);
+    private static final byte[] maxMintAmountKey = Helper.toByteArray((byte) 33);
+    private static final byte[] stakingContractKey = Helper.toByteArray((byte) 34);
+
+    private static final StorageMap tokens = new StorageMap(ctx, (byte) 3);
+    private static final StorageMap ownerOfMap = new StorageMap(ctx, (byte) 4);
+    private static final StorageMap balances = new StorageMap(ctx, (byte) 20);
+    private static final StorageMap nameMap = new StorageMap(ctx, (byte) 12);
+    private static final StorageMap descriptionMap = new StorageMap(ctx, (byte) 13);
+    private static final StorageMap imageMap = new StorageMap(ctx, (byte) 14);
+    private static final StorageMap tokenURIMap = new StorageMap(ctx, (byte) 15);
+    private static final StorageMap sugarMap = new StorageMap(ctx, (byte) 16);
+    private static final StorageMap typeMap = new StorageMap(ctx, (byte) 17);
+    private static final StorageMap villainCandies = new StorageMap(ctx, (byte) 40);
+    private static final StorageMap villagerCandies = new StorageMap(ctx, (byte) 41);
+
+    public static void updateStakingContract(Hash160 contract) {
+        onlyOwner();
+        Storage.put(ctx, stakingContractKey, contract);
+    }
+
+    /**
+     * Mints a genesis candy with the given traits to {@code owner} and returns its
+     * token id.
+     */
+    public static ByteString mintLegacy(Hash160 owner, boolean villain, int sugar) {
+        onlyOwner();
+        int totalSupply = Storage.getIntOrZero(ctx, totalSupplyKey) + 1;
+        Storage.put(ctx, totalSupplyKey, totalSupply);
+        String ts = StdLib.jsonSerialize(totalSupply);
+        ByteString tokenId = new ByteString(totalSupply);
+        nameMap.put(tokenId, "CandyClash Candy #" + ts);
+        descriptionMap.put(tokenId, "CandyClash Candy NFT. Stake to earn $CANDY.");
+        imageMap.put(tokenId, Storage.getString(ctx, imageBaseUriKey) + "/" + ts + ".png");
+        tokenURIMap.put(tokenId, "");
+        sugarMap.put(tokenId, StdLib.jsonSerialize(sugar));
+        typeMap.put(tokenId, villain ? "Villain" : "Villager");
+        if (villain) {
+            villainCandies.put(tokenId, owner);
+        } else {
+            villagerCandies.put(tokenId, owner);
+        }
+        tokens.put(tokenId, tokenId);
+        ownerOfMap.put(tokenId, owner);
+        balances.put(owner.toByteArray(), balances.get(owner.toByteArray()).toIntOrZero() + 1);
+        new StorageMap(ctx, Helper.concat(tokensOfKey, owner.toByteArray())).put(tokenId, 1);
+        return tokenId;
+    }
+
+    private static void onlyOwner() {
+        assert Runtime.checkWitness(new Hash160(Storage.get(ctx, ownerKey))) : "onlyOwner";
+    }
+
+    @OnDeployment
+    public static void deploy(Object data, boolean update) {
+        if (!update) {
+            Object[] arr = (Object[]) data;
+            Storage.put(ctx, ownerKey, (Hash160) arr[0]);
+            Storage.put(ctx, totalSupplyKey, 0);
+            Storage.put(ctx, gasPriceKey, (int) arr[1]);
+            Storage.put(ctx, candyPriceKey, (int) arr[2]);
+            Storage.put(ctx, candyHashKey, (Hash160) arr[3]);
+            Storage.put(ctx, imageBaseUriKey, (String) arr[4]);
+            Storage.put(ctx, maxTokensAmountKey, (int) arr[5]);
+            Storage.put(ctx, maxGenesisAmountKey, (int) arr[6]);
+            Storage.put(ctx, isPausedKey, (boolean) arr[7] ? 1 : 0);
+            Storage.put(ctx, royaltiesReceiverKey, (String) arr[8]);
+            Storage.put(ctx, royaltiesAmountKey, (int) arr[9]);
+            Storage.put(ctx, maxMintAmountKey, (int) arr[10]);
+        }
+    }
+
+    public static void update(ByteString script, String manifest) {
+        onlyOwner();
+        ContractManagement.update(script, manifest);
+    }
+
+}
@@ -0,0 +1,100 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageContext;
+import io.neow3j.devpack.StorageMap;
+import io.neow3j.devpack.annotations.DisplayName;
+import io.neow3j.devpack.annotations.OnDeployment;
+import io.neow3j.devpack.annotations.OnNEP17Payment;
+import io.neow3j.devpack.annotations.Permission;
+import io.neow3j.devpack.contracts.ContractManagement;
+import io.neow3j.devpack.contracts.LedgerContract;
+
+/**
+ * Writes stakes in the storage layout of the first CandyClashStaking release, so
+ * that it can be updated to CandyClashStaking to test the migration. Only the
+ * storage the migration reads is written.
+ */
+@DisplayName("CandyClashStaking")
+@Permission(contract = "0xfffdc93764dbaddd97c48f252a53ea4643faa3fd", methods = "*")
+public class LegacyCandyClashStaking {
+
+    private static final StorageContext ctx = Storage.getStorageContext();
+
+    private static final byte[] ownerKey = Helper.toByteArray((byte) 1);
+    private static final byte[] nftContractkey = Helper.toByteArray((byte) 2);
+    private static final byte[] totalSugarStakedKey = Helper.toByteArray((byte) 3);
+    private static final byte[] candyPerSugarKey = Helper.toByteArray((byte) 4);
+    private static final byte[] totalVillagerCandiesStakedKey = Helper.toByteArray((byte) 5);
+    private static final byte[] candiesContractKey = Helper.toByteArray((byte) 6);
+    private static final byte[] minStakeBlockCountKey = Helper.toByteArray((byte) 8);
+    private static final byte[] dailyCandyRateKey = Helper.toByteArray((byte) 10);
+    private static final byte[] lastClaimBlockIndexKey = Helper.toByteArray((byte) 11);
+    private static final byte[] taxAmountKey = Helper.toByteArray((byte) 13);
+    private static final byte[] totalVillainCandiesStakedKey = Helper.toByteArray((byte) 17);
+
+    private static final StorageMap villainCandies = new StorageMap(ctx, Helper.toByteArray((byte) 14));
+    private static final StorageMap villagerCandies = new StorageMap(ctx, Helper.toByteArray((byte) 15));
+    private static final StorageMap ownerOfMap = new StorageMap(ctx, Helper.toByteArray((byte) 16));
+
+    @OnNEP17Payment
+    public static void onPayment(Hash160 from, int amount, Object data) {
+        assert (Runtime.getCallingScriptHash() == new Hash160(Storage.get(ctx, candiesContractKey))) : "onlyCandy";
+    }
+
+    /**
+     * Records a candy that the NFT contract already holds for {@code owner} as
+     * staked, the way the legacy onNEP11Payment did.
+     */
+    public static void stakeLegacy(Hash160 owner, ByteString tokenId, boolean villain, int sugar) {
+        onlyOwner();
+        if (villain) {
+            Storage.put(ctx, totalSugarStakedKey, Storage.getIntOrZero(ctx, totalSugarStakedKey) + sugar);
+            villainCandies.put(tokenId, Storage.getIntOrZero(ctx, candyPerSugarKey));
+            Storage.put(ctx, totalVillainCandiesStakedKey,
+                    Storage.getIntOrZero(ctx, totalVillainCandiesStakedKey) + 1);
+        } else {
+            villagerCandies.put(tokenId, LedgerContract.currentIndex());
+            Storage.put(ctx, lastClaimBlockIndexKey, LedgerContract.currentIndex());
+            Storage.put(ctx, totalVillagerCandiesStakedKey,
+                    Storage.getIntOrZero(ctx, totalVillagerCandiesStakedKey) + 1);
+        }
+        ownerOfMap.put(tokenId, owner);
+    }
+
+    /**
+     * Raises candyPerSugar as if {@code amount} had been paid as tax.
+     */
+    public static void payTax(int amount) {
+        onlyOwner();
+        Storage.put(ctx, candyPerSugarKey, Storage.getIntOrZero(ctx, candyPerSugarKey)
+                + amount / Storage.getIntOrZero(ctx, totalSugarStakedKey));
+    }
+
+    private static void onlyOwner() {
+        assert (Runtime.checkWitness(new Hash160(Storage.get(ctx, ownerKey)))) : "onlyOwner";
+    }
+
+    @OnDeployment
+    public static void deploy(Object data, boolean update) {
+        Object[] arr = (Object[]) data;
+        if (!update) {
+            Storage.put(ctx, ownerKey, (Hash160) arr[0]);
+            Storage.put(ctx, nftContractkey, (Hash160) arr[1]);
+            Storage.put(ctx, minStakeBlockCountKey, (int) arr[2]);
+            Storage.put(ctx, candiesContractKey, (Hash160) arr[3]);
+            Storage.put(ctx, dailyCandyRateKey, (int) arr[4]);
+            Storage.put(ctx, taxAmountKey, (int) arr[5]);
+        }
+    }
+
+    public static void update(ByteString script, String manifest) {
+        onlyOwner();
+        ContractManagement.update(script, manifest);
+    }
+
+}
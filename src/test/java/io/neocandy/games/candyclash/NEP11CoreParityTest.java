@@ -0,0 +1,94 @@
+package io.neocandy.games.candyclash;
+
+import static io.neocandy.games.candyclash.TestHelper.transfer11;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.neocandy.tokens.nep11.NeoCandyCollection;
+import io.neocandy.tokens.nep17.NeoCandy;
+import io.neow3j.contract.SmartContract;
+import io.neow3j.protocol.core.response.NeoInvokeFunction;
+import io.neow3j.test.ContractTest;
+import io.neow3j.test.DeployConfig;
+import io.neow3j.test.DeployConfiguration;
+import io.neow3j.types.ContractParameter;
+
+/**
+ * Checks that CandyClashNFT and NeoCandyCollection behave the same and pay the same
+ * fees for the parts they share through NEP11Core.
+ */
+@ContractTest(blockTime = 1, contracts = { NeoCandy.class,
+                CandyClashNFT.class,
+                CandyClashStaking.class,
+                NeoCandyCollection.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+public class NEP11CoreParityTest extends AbstractCandyClashTest {
+
+        @DeployConfig(NeoCandyCollection.class)
+        public static DeployConfiguration configureNeoCandyCollection() throws Exception {
+                DeployConfiguration config = new DeployConfiguration();
+                ContractParameter owner = ContractParameter.hash160(
+                                ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getScriptHash());
+                config.setDeployParam(owner);
+                return config;
+        }
+
+        @Test
+        void transferParityTest() throws Throwable {
+                log.info("====================== transferParityTest() ======================");
+                SmartContract collection = new SmartContract(
+                                ext.getDeployedContract(NeoCandyCollection.class).getScriptHash(), neow3j);
+
+                TestHelper.mintNFT(gas, alice, BigInteger.valueOf(10_00000000L), candyClashNft, neow3j);
+                NeoInvokeFunction result = candyClashNft.callInvokeFunction(TestHelper.TOTAL_SUPPLY);
+                byte[] tokenId = TestHelper.tokenId(
+                                result.getInvocationResult().getStack().get(0).getInteger().intValue());
+
+                Map<String, String> properties = new HashMap<>();
+                properties.put("name", "name");
+                TestHelper.invokeWrite(collection, "mint", Arrays.asList(ContractParameter.hash160(alice),
+                                ContractParameter.byteArray(tokenId), ContractParameter.map(properties)),
+                                alice, neow3j);
+
+                List<SmartContract> contracts = Arrays.asList(candyClashNft, collection);
+                long[] balanceOfFees = new long[2];
+                long[] ownerOfFees = new long[2];
+                for (int i = 0; i < contracts.size(); i++) {
+                        SmartContract contract = contracts.get(i);
+                        int bobBalance = balanceOf(contract);
+                        transfer11(contract, tokenId, alice, bob.getScriptHash(), neow3j);
+
+                        assertEquals(bobBalance + 1, balanceOf(contract));
+                        result = contract.callInvokeFunction(TestHelper.OWNER_OF,
+                                        Arrays.asList(ContractParameter.byteArray(tokenId)));
+                        assertEquals(bob.getScriptHash().toAddress(),
+                                        result.getInvocationResult().getStack().get(0).getAddress());
+
+                        // subtracting decimals() removes the different static initialization of the contracts
+                        long baseFee = gasConsumed(contract.callInvokeFunction("decimals"));
+                        balanceOfFees[i] = gasConsumed(contract.callInvokeFunction(TestHelper.BALANCE_OF,
+                                        Arrays.asList(ContractParameter.hash160(bob)))) - baseFee;
+                        ownerOfFees[i] = gasConsumed(contract.callInvokeFunction(TestHelper.OWNER_OF,
+                                        Arrays.asList(ContractParameter.byteArray(tokenId)))) - baseFee;
+                }
+                assertEquals(balanceOfFees[0], balanceOfFees[1]);
+                assertEquals(ownerOfFees[0], ownerOfFees[1]);
+        }
+
+        private static int balanceOf(SmartContract contract) throws Throwable {
+                NeoInvokeFunction result = contract.callInvokeFunction(TestHelper.BALANCE_OF,
+                                Arrays.asList(ContractParameter.hash160(bob)));
+                return result.getInvocationResult().getStack().get(0).getInteger().intValue();
+        }
+
+        private static long gasConsumed(NeoInvokeFunction result) {
+                return new BigInteger(result.getInvocationResult().getGasConsumed()).longValue();
+        }
+
+}
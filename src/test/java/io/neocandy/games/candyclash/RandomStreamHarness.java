@@ -0,0 +1,32 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.annotations.ManifestExtra;
+import io.neow3j.devpack.annotations.Safe;
+
+/**
+ * Exposes RandomStream to the tests, which cannot call library classes of the
+ * contracts directly.
+ */
+@ManifestExtra(key = "name", value = "RandomStream Harness")
+public class RandomStreamHarness {
+
+    /**
+     * Returns the first {@code count} numbers of a stream that starts at
+     * {@code state}.
+     */
+    @Safe
+    public static int[] next(int state, int bound, int count) {
+        RandomStream stream = new RandomStream(state);
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = RandomStream.next(stream, bound);
+        }
+        return values;
+    }
+
+    @Safe
+    public static int seed() {
+        return RandomStream.seed().state;
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.neocandy.games.candyclash;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Contract;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageContext;
+import io.neow3j.devpack.annotations.OnNEP11Payment;
+import io.neow3j.devpack.annotations.OnNEP17Payment;
+import io.neow3j.devpack.annotations.Permission;
+import io.neow3j.devpack.constants.CallFlags;
+
+/**
+ * Staker that claims its whole account again from within onNEP11Payment while
+ * an unstaked candy is sent back, to check that an unstake cannot pay the same
+ * rewards twice.
+ */
+@Permission(contract = "*", methods = { "transfer", "claim", "claimAll" })
+public class ReentrantStaker {
+
+    private static final StorageContext ctx = Storage.getStorageContext();
+    private static final byte[] reentryKey = Helper.toByteArray((byte) 1);
+
+    public static void stake(Hash160 nftContract, Hash160 stakingContract, ByteString tokenId) {
+        Contract.call(nftContract, "transfer", CallFlags.All,
+                new Object[] { Runtime.getExecutingScriptHash(), stakingContract, tokenId, null });
+    }
+
+    /**
+     * Unstakes the given candies and calls claimAll once the first of them comes
+     * back.
+     */
+    public static int unstake(Hash160 stakingContract, ByteString[] tokenIds) {
+        Storage.put(ctx, reentryKey, stakingContract.toByteString());
+        return (int) Contract.call(stakingContract, "claim", CallFlags.All,
+                new Object[] { tokenIds, true, Runtime.getExecutingScriptHash() });
+    }
+
+    @OnNEP11Payment
+    public static void onNEP11Payment(Hash160 from, int amount, ByteString tokenId, Object data) {
+        ByteString stakingContract = Storage.get(ctx, reentryKey);
+        if (stakingContract == null) {
+            return;
+        }
+        Storage.delete(ctx, reentryKey);
+        Contract.call(new Hash160(stakingContract), "claimAll", CallFlags.All,
+                new Object[] { Runtime.getExecutingScriptHash(), 0, 1 });
+    }
+
+    @OnNEP17Payment
+    public static void onNEP17Payment(Hash160 from, int amount, Object data) {
+    }
+
+}
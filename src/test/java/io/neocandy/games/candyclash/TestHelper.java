@@ -11,14 +11,19 @@ import org.slf4j.LoggerFactory;
 import io.neow3j.contract.FungibleToken;
 import io.neow3j.contract.SmartContract;
 import io.neow3j.protocol.Neow3j;
+import io.neow3j.protocol.core.response.InvocationResult;
+import io.neow3j.protocol.core.response.NeoApplicationLog.Execution;
 import io.neow3j.protocol.core.response.NeoSendRawTransaction;
 import io.neow3j.protocol.core.stackitem.StackItem;
 import io.neow3j.transaction.AccountSigner;
 import io.neow3j.transaction.Signer;
 import io.neow3j.transaction.Transaction;
+import io.neow3j.transaction.TransactionBuilder;
 import io.neow3j.types.ContractParameter;
 import io.neow3j.types.Hash160;
+import io.neow3j.utils.ArrayUtils;
 import io.neow3j.utils.Await;
+import io.neow3j.utils.Numeric;
 import io.neow3j.wallet.Account;
 
 public class TestHelper {
@@ -29,17 +34,46 @@ public class TestHelper {
     protected static final String JSON_PROPERTIES = "propertiesJson";
     protected static final String UPDATE_PAUSE = "updatePause";
     protected static final String ROYALTIES = "getRoyalties";
+    protected static final String ROYALTY_INFO = "royaltyInfo";
     protected static final String TOKENS_OF = "tokensOf";
+    protected static final String OWNER_OF = "ownerOf";
+    protected static final String BALANCE_OF = "balanceOf";
+    protected static final String TOKENS_OF_WITH_ATTRIBUTES = "tokensOfWithAttributes";
     protected static final String CONNECT_STAKING_CONTRACT = "updateStakingContract";
     protected static final String TOTAL_VILLAIN_CANDIES_STAKED = "totalVillainCandiesStaked";
     protected static final String GET_VILLAGER_CANDIES = "getVillagerCandies";
     protected static final String GET_VILLAIN_CANDIES = "getVillainCandies";
+    protected static final String VILLAGER_TOKENS = "villagerTokens";
+    protected static final String STAKING_ATTRIBUTES = "stakingAttributes";
+    protected static final String UPDATE_LAZY_REVEAL = "updateLazyReveal";
+    protected static final String REVEAL = "reveal";
+    protected static final String TOTAL_SUPPLY = "totalSupply";
+    protected static final String SCHEMA_VERSION = "schemaVersion";
+    protected static final String MIGRATE = "migrate";
+    protected static final String STAKE_MANY = "stakeMany";
+    protected static final String GAS_PRICE = "gasPrice";
+    protected static final String CANDY_PRICE = "candyPrice";
+    protected static final String IS_PAUSED = "isPaused";
+    protected static final String MAX_GENESIS_AMOUNT = "maxGenesisAmount";
+    protected static final String MAX_TOKENS_AMOUNT = "maxTokensAmount";
+    protected static final String STAKING_CONTRACT = "stakingContract";
+    protected static final String LAZY_REVEAL = "lazyReveal";
+    protected static final String UPDATE_GAS_PRICE = "updateGasPrice";
+    protected static final String UPDATE_CANDY_PRICE = "updateCandyPrice";
 
     // STAKING CONTRACT
     protected static final String MAX_CANDIES_TO_EARN = "maxCandiesToEarn";
     protected static final String AVAILABLE_CLAIM_AMOUNT = "availableClaimAmount";
     protected static final String CLAIM = "claim";
     protected static final String TOTAL_VILLAGER_CANDIES_STAKED = "totalVillagerCandiesStaked";
+    protected static final String CLAIM_ALL = "claimAll";
+    protected static final String STAKED_TOKENS_OF = "stakedTokensOf";
+    protected static final String AVAILABLE_VILLAGER_CLAIM_AMOUNT = "availableVillagerClaimAmount";
+    protected static final String TOTAL_SUGAR_STAKED = "totalSugarStaked";
+    protected static final String RANDOM_STAKED_VILLAIN_OWNER = "randomStakedVillainOwner";
+    protected static final String CANDY_PER_SUGAR = "candyPerSugar";
+    protected static final String UNACCOUNTED_REWARDS = "unaccountedRewards";
+    protected static final String SET_COMPACT_EVENTS = "setCompactEvents";
 
     protected static final Logger log = LoggerFactory.getLogger(TestHelper.class);
 
@@ -78,11 +112,43 @@ public class TestHelper {
     protected static List<StackItem> invokeWrite(
             SmartContract contract, String method, List<ContractParameter> params, Account signer, Neow3j neow3j)
             throws Throwable {
+        return invokeWriteExecution(contract, method, params, signer, neow3j).getStack();
+    }
+
+    protected static Execution invokeWriteExecution(
+            SmartContract contract, String method, List<ContractParameter> params, Account signer, Neow3j neow3j)
+            throws Throwable {
         Transaction tx = null;
 
         tx = contract.invokeFunction(method, params.toArray(new ContractParameter[0]))
                 .signers(new Signer[] { AccountSigner.calledByEntry(signer) }).sign();
+        return send(tx, method, neow3j);
+    }
+
+    /**
+     * Sends a script with several contract calls in one transaction, e.g. built
+     * with a ScriptBuilder. The results of all calls are returned in call order.
+     */
+    protected static List<StackItem> invokeScript(byte[] script, Account signer, Neow3j neow3j) throws Throwable {
+        Transaction tx = new TransactionBuilder(neow3j).script(script)
+                .signers(AccountSigner.calledByEntry(signer)).sign();
+        return send(tx, "script", neow3j).getStack();
+    }
 
+    /**
+     * Runs a script with several contract calls as test invocation, so all calls
+     * see the same block and nothing is persisted.
+     */
+    protected static List<StackItem> callScript(byte[] script, Account signer, Neow3j neow3j) throws Throwable {
+        InvocationResult result = neow3j.invokeScript(Numeric.toHexStringNoPrefix(script),
+                AccountSigner.calledByEntry(signer)).send().getInvocationResult();
+        if (result.getException() != null) {
+            throw new Exception(result.getException());
+        }
+        return result.getStack();
+    }
+
+    private static Execution send(Transaction tx, String method, Neow3j neow3j) throws Throwable {
         log.info("gas fee invokeWrite:{} {}\n", method, tx.getSystemFee() + tx.getNetworkFee());
         NeoSendRawTransaction res = tx.send();
         if (res.hasError()) {
@@ -92,7 +158,19 @@ public class TestHelper {
         log.info("invoke {} success, waiting for response...\n", method);
         Await.waitUntilTransactionIsExecuted(res.getSendRawTransaction().getHash(), neow3j);
         log.info("application log of {} : {}\n", method, tx.getApplicationLog());
-        return tx.getApplicationLog().getExecutions().get(0).getStack();
+        return tx.getApplicationLog().getExecutions().get(0);
+    }
+
+    /**
+     * Returns the integer value of a token id, which the contracts store as
+     * little endian NeoVM integer.
+     */
+    protected static int tokenNumber(byte[] tokenId) {
+        return new BigInteger(ArrayUtils.reverseArray(tokenId)).intValue();
+    }
+
+    protected static byte[] tokenId(int tokenNumber) {
+        return ArrayUtils.reverseArray(BigInteger.valueOf(tokenNumber).toByteArray());
     }
 
     protected static void mintNFT(FungibleToken token, Account account, BigInteger amount, SmartContract nft,
@@ -0,0 +1,143 @@
+package io.neocandy.tokens.nep11;
+
+import static io.neow3j.types.ContractParameter.hash160;
+import static io.neow3j.types.ContractParameter.string;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.neow3j.contract.SmartContract;
+import io.neow3j.protocol.Neow3j;
+import io.neow3j.protocol.core.response.NeoInvokeFunction;
+import io.neow3j.protocol.core.response.NeoSendRawTransaction;
+import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.test.ContractTest;
+import io.neow3j.test.ContractTestExtension;
+import io.neow3j.test.DeployConfig;
+import io.neow3j.test.DeployConfiguration;
+import io.neow3j.transaction.AccountSigner;
+import io.neow3j.transaction.Transaction;
+import io.neow3j.types.ContractParameter;
+import io.neow3j.types.Hash160;
+import io.neow3j.utils.Await;
+import io.neow3j.wallet.Account;
+
+@ContractTest(blockTime = 1, contracts = NeoCandyCollection.class, batchFile = "init.batch",
+        configFile = "dev.neo-express")
+public class NeoCandyCollectionTest {
+    private static final Logger log = LoggerFactory.getLogger(NeoCandyCollectionTest.class);
+    private static final String TOTAL_SUPPLY = "totalSupply";
+    private static final String BALANCE_OF = "balanceOf";
+    private static final String OWNER_OF = "ownerOf";
+    private static final String MINT_BATCH = "mintBatch";
+    private static final String REGISTER_TEMPLATE = "registerTemplate";
+    private static final String PROPERTIES = "properties";
+    private static Account alice;
+    private static Account bob;
+    private static Account charlie;
+
+    @RegisterExtension
+    private static ContractTestExtension ext = new ContractTestExtension();
+
+    private static Neow3j neow3j;
+    private static SmartContract collection;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        neow3j = ext.getNeow3j();
+        alice = ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2");
+        bob = ext.getAccount("NhsVB4etFffHjpLoj2ngVkkfNbtxiSSmbk");
+        charlie = ext.getAccount("NdbtgSku2qLuwsBBzLx3FLtmmMdm32Ktor");
+        collection = ext.getDeployedContract(NeoCandyCollection.class);
+    }
+
+    @DeployConfig(NeoCandyCollection.class)
+    public static DeployConfiguration configure() throws Exception {
+        DeployConfiguration config = new DeployConfiguration();
+        ContractParameter owner = hash160(ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getScriptHash());
+        config.setDeployParam(owner);
+        return config;
+    }
+
+    @Test
+    public void mintBatchTest() throws Throwable {
+        int supply = intResult(collection.callInvokeFunction(TOTAL_SUPPLY));
+        int bobBalance = balanceOf(bob.getScriptHash());
+        int charlieBalance = balanceOf(charlie.getScriptHash());
+
+        invokeWrite(MINT_BATCH, Arrays.asList(
+                ContractParameter.array(hash160(bob), hash160(charlie), hash160(bob)),
+                ContractParameter.array(string("batch-1"), string("batch-2"), string("batch-3")),
+                ContractParameter.array(ContractParameter.map(named("one")), ContractParameter.map(named("two")),
+                        ContractParameter.map(named("three")))));
+
+        assertEquals(supply + 3, intResult(collection.callInvokeFunction(TOTAL_SUPPLY)));
+        assertEquals(bobBalance + 2, balanceOf(bob.getScriptHash()));
+        assertEquals(charlieBalance + 1, balanceOf(charlie.getScriptHash()));
+        NeoInvokeFunction result = collection.callInvokeFunction(OWNER_OF, Arrays.asList(string("batch-2")));
+        assertEquals(charlie.getAddress(), result.getInvocationResult().getStack().get(0).getAddress());
+    }
+
+    @Test
+    public void templatedPropertiesTest() throws Throwable {
+        Map<String, String> template = new HashMap<>();
+        template.put("description", "A long description shared by the whole drop");
+        template.put("image", "https://neocandy.io/drop/");
+        invokeWrite(REGISTER_TEMPLATE, Arrays.asList(string("drop"), ContractParameter.map(template)));
+
+        Map<String, String> properties = named("templated");
+        properties.put("template", "drop");
+        properties.put("image", "7.png");
+        invokeWrite("mint", Arrays.asList(hash160(bob), string("templated-7"), ContractParameter.map(properties)));
+
+        NeoInvokeFunction result = collection.callInvokeFunction(PROPERTIES,
+                Arrays.asList(string("templated-7")));
+        Map<StackItem, StackItem> map = result.getInvocationResult().getStack().get(0).getMap();
+        Map<String, String> expanded = new HashMap<>();
+        map.forEach((k, v) -> expanded.put(k.getString(), v.getString()));
+        assertEquals("templated", expanded.get("name"));
+        assertEquals("A long description shared by the whole drop", expanded.get("description"));
+        assertEquals("https://neocandy.io/drop/7.png", expanded.get("image"));
+        assertFalse(expanded.containsKey("tokenURI"));
+    }
+
+    private static Map<String, String> named(String name) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("name", name);
+        return properties;
+    }
+
+    private static int balanceOf(Hash160 owner) throws Throwable {
+        return intResult(collection.callInvokeFunction(BALANCE_OF, Arrays.asList(hash160(owner))));
+    }
+
+    private static int intResult(NeoInvokeFunction result) {
+        return result.getInvocationResult().getStack().get(0).getInteger().intValue();
+    }
+
+    /**
+     * Sends an invocation signed by alice, the owner of the collection, and waits
+     * until it is executed.
+     */
+    private static void invokeWrite(String method, List<ContractParameter> params) throws Throwable {
+        Transaction tx = collection.invokeFunction(method, params.toArray(new ContractParameter[0]))
+                .signers(AccountSigner.calledByEntry(alice)).sign();
+        NeoSendRawTransaction res = tx.send();
+        if (res.hasError()) {
+            throw new Exception(res.getError().getMessage());
+        }
+        Await.waitUntilTransactionIsExecuted(res.getSendRawTransaction().getHash(), neow3j);
+        log.info("application log of {} : {}\n", method, tx.getApplicationLog());
+    }
+
+}
@@ -0,0 +1,201 @@
+package io.neocandy.tokens.nep17;
+
+import static io.neow3j.types.ContractParameter.hash160;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.neow3j.contract.FungibleToken;
+import io.neow3j.contract.GasToken;
+import io.neow3j.contract.SmartContract;
+import io.neow3j.crypto.Sign;
+import io.neow3j.protocol.Neow3j;
+import io.neow3j.protocol.core.response.NeoInvokeFunction;
+import io.neow3j.protocol.core.response.NeoSendRawTransaction;
+import io.neow3j.protocol.core.stackitem.StackItem;
+import io.neow3j.test.ContractTest;
+import io.neow3j.test.ContractTestExtension;
+import io.neow3j.test.DeployConfig;
+import io.neow3j.test.DeployConfiguration;
+import io.neow3j.transaction.AccountSigner;
+import io.neow3j.transaction.Transaction;
+import io.neow3j.types.ContractParameter;
+import io.neow3j.types.Hash160;
+import io.neow3j.utils.Await;
+import io.neow3j.wallet.Account;
+
+@ContractTest(blockTime = 1, contracts = { NeoCandy.class,
+        ReentrantReceiver.class }, batchFile = "init.batch", configFile = "dev.neo-express")
+public class NeoCandyTest {
+    private static final Logger log = LoggerFactory.getLogger(NeoCandyTest.class);
+    private static final String TRANSFER_BATCH = "transferBatch";
+    private static final String ENABLE_CHECKPOINTS = "enableCheckpoints";
+    private static final String BALANCE_OF_AT = "balanceOfAt";
+    private static final String TRANSFER_WITH_SIGNATURE = "transferWithSignature";
+    private static final String NONCE_OF = "nonceOf";
+    private static final Hash160 STD_LIB = new Hash160("acce6fd80d44e1796aa0c2c625e9e4e0ce39efc0");
+    private static Account alice;
+    private static Account bob;
+    private static Account charlie;
+
+    @RegisterExtension
+    private static ContractTestExtension ext = new ContractTestExtension();
+
+    private static Neow3j neow3j;
+    private static FungibleToken candyToken;
+    private static GasToken gas;
+
+    @BeforeAll
+    public static void setup() throws Exception {
+        neow3j = ext.getNeow3j();
+        alice = ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2");
+        bob = ext.getAccount("NhsVB4etFffHjpLoj2ngVkkfNbtxiSSmbk");
+        charlie = ext.getAccount("NdbtgSku2qLuwsBBzLx3FLtmmMdm32Ktor");
+        gas = new GasToken(neow3j);
+        candyToken = new FungibleToken(ext.getDeployedContract(NeoCandy.class).getScriptHash(), neow3j);
+    }
+
+    @DeployConfig(NeoCandy.class)
+    public static DeployConfiguration configure() throws Exception {
+        DeployConfiguration config = new DeployConfiguration();
+        ContractParameter owner = hash160(ext.getAccount("NQcSTBwSJs7hcFUZzku2QdPNLe2dkTGok2").getScriptHash());
+        config.setDeployParam(owner);
+        return config;
+    }
+
+    @Test
+    public void transferBatchTest() throws Throwable {
+        BigInteger bobBalance = candyToken.getBalanceOf(bob);
+        BigInteger charlieBalance = candyToken.getBalanceOf(charlie);
+
+        List<StackItem> result = invokeWrite(candyToken, TRANSFER_BATCH,
+                Arrays.asList(hash160(alice),
+                        ContractParameter.array(hash160(bob), hash160(charlie), hash160(charlie)),
+                        ContractParameter.array(ContractParameter.integer(5), ContractParameter.integer(7),
+                                ContractParameter.integer(3)),
+                        ContractParameter.any(null)),
+                alice);
+
+        assertTrue(result.get(0).getBoolean());
+        assertEquals(bobBalance.add(BigInteger.valueOf(5)), candyToken.getBalanceOf(bob));
+        assertEquals(charlieBalance.add(BigInteger.valueOf(10)), candyToken.getBalanceOf(charlie));
+    }
+
+    @Test
+    public void balanceOfAtTest() throws Throwable {
+        // charlie has no GAS to pay for enabling his checkpoints
+        transfer(gas, alice, charlie.getScriptHash(), BigInteger.valueOf(10_00000000L));
+        invokeWrite(candyToken, ENABLE_CHECKPOINTS, Arrays.asList(hash160(charlie)), charlie);
+        BigInteger before = candyToken.getBalanceOf(charlie);
+        BigInteger blockBefore = neow3j.getBlockCount().send().getBlockCount().subtract(BigInteger.ONE);
+
+        transfer(candyToken, alice, charlie.getScriptHash(), BigInteger.valueOf(42));
+        BigInteger blockAfter = neow3j.getBlockCount().send().getBlockCount().subtract(BigInteger.ONE);
+
+        assertEquals(before, balanceOfAt(blockBefore));
+        assertEquals(before.add(BigInteger.valueOf(42)), balanceOfAt(blockAfter));
+    }
+
+    private BigInteger balanceOfAt(BigInteger blockIndex) throws IOException {
+        NeoInvokeFunction result = candyToken.callInvokeFunction(BALANCE_OF_AT,
+                Arrays.asList(hash160(charlie), ContractParameter.integer(blockIndex)));
+        return result.getInvocationResult().getStack().get(0).getInteger();
+    }
+
+    @Test
+    public void transferWithSignatureTest() throws Throwable {
+        transfer(candyToken, alice, charlie.getScriptHash(), BigInteger.valueOf(10));
+        BigInteger bobBalance = candyToken.getBalanceOf(bob);
+        BigInteger validUntilBlock = neow3j.getBlockCount().send().getBlockCount().add(BigInteger.valueOf(100));
+        List<ContractParameter> params = signedTransfer(bob.getScriptHash(), BigInteger.valueOf(3),
+                nonceOf(charlie), validUntilBlock);
+
+        // bob relays the transfer signed by charlie
+        List<StackItem> result = invokeWrite(candyToken, TRANSFER_WITH_SIGNATURE, params, bob);
+
+        assertTrue(result.get(0).getBoolean());
+        assertEquals(bobBalance.add(BigInteger.valueOf(3)), candyToken.getBalanceOf(bob));
+        Exception ex = assertThrows(Exception.class,
+                () -> invokeWrite(candyToken, TRANSFER_WITH_SIGNATURE, params, bob));
+        assertTrue(ex.getMessage().contains("Invalid nonce"));
+    }
+
+    @Test
+    public void transferWithSignatureReentrancyTest() throws Throwable {
+        transfer(candyToken, alice, charlie.getScriptHash(), BigInteger.valueOf(10));
+        SmartContract receiver = ext.getDeployedContract(ReentrantReceiver.class);
+        BigInteger charlieBalance = candyToken.getBalanceOf(charlie);
+        BigInteger nonce = nonceOf(charlie);
+        BigInteger validUntilBlock = neow3j.getBlockCount().send().getBlockCount().add(BigInteger.valueOf(100));
+        List<ContractParameter> params = signedTransfer(receiver.getScriptHash(), BigInteger.valueOf(3), nonce,
+                validUntilBlock);
+
+        // the receiver replays the same signed transfer when it is paid
+        invokeWrite(receiver, "setReplay", Arrays.asList(params.get(0), params.get(2), params.get(3),
+                params.get(4), params.get(5), params.get(6)), bob);
+        Exception ex = assertThrows(Exception.class,
+                () -> invokeWrite(candyToken, TRANSFER_WITH_SIGNATURE, params, bob));
+
+        assertTrue(ex.getMessage().contains("Invalid nonce"));
+        assertEquals(charlieBalance, candyToken.getBalanceOf(charlie));
+        assertEquals(BigInteger.ZERO, candyToken.getBalanceOf(receiver.getScriptHash()));
+        assertEquals(nonce, nonceOf(charlie));
+    }
+
+    private BigInteger nonceOf(Account account) throws IOException {
+        return candyToken.callInvokeFunction(NONCE_OF, Arrays.asList(hash160(account)))
+                .getInvocationResult().getStack().get(0).getInteger();
+    }
+
+    private List<ContractParameter> signedTransfer(Hash160 receiver, BigInteger amount, BigInteger nonce,
+            BigInteger validUntilBlock) throws IOException {
+        ContractParameter from = hash160(charlie);
+        ContractParameter to = hash160(receiver);
+        SmartContract stdLib = new SmartContract(STD_LIB, neow3j);
+        NeoInvokeFunction serialized = stdLib.callInvokeFunction("serialize", Arrays.asList(
+                ContractParameter.array(hash160(candyToken.getScriptHash()),
+                        ContractParameter.integer(BigInteger.valueOf(neow3j.getNetworkMagicNumber())),
+                        from, to, ContractParameter.integer(amount), ContractParameter.integer(nonce),
+                        ContractParameter.integer(validUntilBlock))));
+        byte[] message = serialized.getInvocationResult().getStack().get(0).getByteArray();
+        byte[] signature = Sign.signMessage(message, charlie.getECKeyPair()).getConcatenated();
+        return Arrays.asList(from, to, ContractParameter.integer(amount), ContractParameter.integer(nonce),
+                ContractParameter.integer(validUntilBlock),
+                ContractParameter.publicKey(charlie.getECKeyPair().getPublicKey()),
+                ContractParameter.byteArray(signature));
+    }
+
+    private static void transfer(FungibleToken token, Account from, Hash160 to, BigInteger amount)
+            throws Throwable {
+        send(token.transfer(from, to, amount).sign(), "transfer");
+    }
+
+    private static List<StackItem> invokeWrite(SmartContract contract, String method,
+            List<ContractParameter> params, Account signer) throws Throwable {
+        Transaction tx = contract.invokeFunction(method, params.toArray(new ContractParameter[0]))
+                .signers(AccountSigner.calledByEntry(signer)).sign();
+        return send(tx, method);
+    }
+
+    private static List<StackItem> send(Transaction tx, String method) throws Throwable {
+        NeoSendRawTransaction res = tx.send();
+        if (res.hasError()) {
+            throw new Exception(res.getError().getMessage());
+        }
+        Await.waitUntilTransactionIsExecuted(res.getSendRawTransaction().getHash(), neow3j);
+        log.info("application log of {} : {}\n", method, tx.getApplicationLog());
+        return tx.getApplicationLog().getExecutions().get(0).getStack();
+    }
+
+}
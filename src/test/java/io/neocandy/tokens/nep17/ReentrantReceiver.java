@@ -0,0 +1,48 @@
+package io.neocandy.tokens.nep17;
+
+import io.neow3j.devpack.ByteString;
+import io.neow3j.devpack.Contract;
+import io.neow3j.devpack.ECPoint;
+import io.neow3j.devpack.Hash160;
+import io.neow3j.devpack.Helper;
+import io.neow3j.devpack.Runtime;
+import io.neow3j.devpack.Storage;
+import io.neow3j.devpack.StorageContext;
+import io.neow3j.devpack.annotations.OnNEP17Payment;
+import io.neow3j.devpack.annotations.Permission;
+import io.neow3j.devpack.constants.CallFlags;
+import io.neow3j.devpack.contracts.StdLib;
+
+/**
+ * Receiver that replays a signed transfer of the paying token from within its
+ * onNEP17Payment, to check that a signed transfer cannot be executed twice.
+ */
+@Permission(contract = "*", methods = "transferWithSignature")
+public class ReentrantReceiver {
+
+    private static final StorageContext ctx = Storage.getStorageContext();
+    private static final byte[] replayKey = Helper.toByteArray((byte) 1);
+
+    /**
+     * Stores a signed transfer to this contract that is replayed on the next
+     * payment.
+     */
+    public static void setReplay(Hash160 from, int amount, int nonce, int validUntilBlock, ECPoint publicKey,
+            ByteString signature) {
+        Storage.put(ctx, replayKey,
+                StdLib.serialize(new Object[] { from, amount, nonce, validUntilBlock, publicKey, signature }));
+    }
+
+    @OnNEP17Payment
+    public static void onPayment(Hash160 from, int amount, Object data) {
+        ByteString replay = Storage.get(ctx, replayKey);
+        if (replay == null) {
+            return;
+        }
+        Storage.delete(ctx, replayKey);
+        Object[] args = (Object[]) StdLib.deserialize(replay);
+        Contract.call(Runtime.getCallingScriptHash(), "transferWithSignature", CallFlags.All, new Object[] {
+                args[0], Runtime.getExecutingScriptHash(), args[1], args[2], args[3], args[4], args[5] });
+    }
+
+}